@@ -18,20 +18,58 @@
 
 package cascading.avro;
 
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaParseException;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.model.fileset.FileSet;
 import org.apache.maven.shared.model.fileset.util.FileSetManager;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 /**
  * Base for Avro Compiler Mojos.
  */
 public abstract class AbstractAvroMojo extends AbstractMojo {
 
+  /**
+   * The prefix of the files in an output directory that record the generator stamp and the files generated with it.
+   * There is one per source directory and set of patterns, so executions sharing an output directory don't see each
+   * other's files as their own.
+   */
+  static final String STAMP_FILE_PREFIX = ".cascading-avro-";
+
+  /**
+   * The start of the message Avro fails to parse a schema with when it uses a type that isn't defined.
+   */
+  private static final String UNDEFINED_NAME = "Undefined name:";
+
   /**
    * The current Maven project.
    * 
@@ -41,6 +79,13 @@ public abstract class AbstractAvroMojo extends AbstractMojo {
    */
   private MavenProject project;
 
+  /**
+   * The number of schema files to generate code for in parallel. Defaults to the number of processors.
+   *
+   * @parameter expression="${avro.threads}"
+   */
+  private int threads = Runtime.getRuntime().availableProcessors();
+
   @Override
   public void execute() throws MojoExecutionException {
     boolean hasSourceDir = null != getSourceDirectory()
@@ -55,14 +100,16 @@ public abstract class AbstractAvroMojo extends AbstractMojo {
     if (hasSourceDir) {
       String[] includedFiles = getIncludedFiles(
           getSourceDirectory().getAbsolutePath(), getExcludes(), getIncludes());
-      compileFiles(includedFiles, getSourceDirectory(), getOutputDirectory());
+      compileFiles(includedFiles, getSourceDirectory(), getOutputDirectory(),
+          getStampFile(getOutputDirectory(), getSourceDirectory(), getIncludes(), getExcludes()));
       project.addCompileSourceRoot(getOutputDirectory().getAbsolutePath());
     }
     if (hasTestDir) {
       String[] includedFiles = getIncludedFiles(
           getTestSourceDirectory().getAbsolutePath(), getTestExcludes(),
           getTestIncludes());
-      compileFiles(includedFiles, getTestSourceDirectory(), getTestOutputDirectory());
+      compileFiles(includedFiles, getTestSourceDirectory(), getTestOutputDirectory(),
+          getStampFile(getTestOutputDirectory(), getTestSourceDirectory(), getTestIncludes(), getTestExcludes()));
       project.addTestCompileSourceRoot(getTestOutputDirectory().getAbsolutePath());
     }
   }
@@ -94,18 +141,370 @@ public abstract class AbstractAvroMojo extends AbstractMojo {
     return fileSetManager.getIncludedFiles(fs);
   }
 
-  private void compileFiles(String[] files, File sourceDir, File outDir) throws MojoExecutionException {
+  /**
+   * Parses all schema files with one shared set of named types, so a schema may use types defined in other files,
+   * and then generates code for the files whose output is missing or older than the schema file, or than any file
+   * defining a type it uses. Everything is generated again when the generator stamp differs from the one the files
+   * were generated with, and files generated before that aren't generated any more are deleted. Both only concern the
+   * files recorded in the given stamp file. Generation runs in parallel.
+   */
+  private void compileFiles(String[] files, File sourceDir, final File outDir, final File stampFile)
+      throws MojoExecutionException {
+    final Map<String, Schema> schemas = parseFiles(files, sourceDir);
+
+    final String stamp = getGeneratorStamp();
+    final List<String> previous = readStamp(stampFile);
+    final boolean stampChanged = previous == null || !previous.get(0).equals(stamp);
+    if (stampChanged) {
+      getLog().info("Generator configuration changed, generating all schema files");
+    }
+
+    final List<String> stale = new ArrayList<String>();
+    final Set<String> outputs = new LinkedHashSet<String>();
+    final Map<String, String> definingFiles = definingFiles(schemas);
+    for (Map.Entry<String, Schema> entry : schemas.entrySet()) {
+      long lastModified = lastModified(entry.getValue(), sourceDir, definingFiles, new ArrayList<Schema>());
+      lastModified = Math.max(lastModified, new File(sourceDir, entry.getKey()).lastModified());
+      boolean isStale = stampChanged;
+      for (File output : getOutputFiles(entry.getValue(), outDir)) {
+        outputs.add(relativePath(outDir, output));
+        isStale |= !output.exists() || output.lastModified() < lastModified;
+      }
+      if (isStale) {
+        stale.add(entry.getKey());
+      }
+    }
+    getLog().info((files.length - stale.size()) + " of " + files.length + " schema files are up to date");
+    if (!stale.isEmpty()) {
+      generate(stale, schemas, outDir);
+    }
+
+    if (previous != null) {
+      // e.g. converters that are no longer wanted, or the output of schema files that were removed
+      for (String output : previous.subList(1, previous.size())) {
+        if (!outputs.contains(output)) {
+          //noinspection ResultOfMethodCallIgnored
+          new File(outDir, output).delete();
+        }
+      }
+    }
+    final List<String> current = new ArrayList<String>();
+    current.add(stamp);
+    current.addAll(outputs);
+    if (!current.equals(previous)) {
+      writeStamp(stampFile, current);
+    }
+  }
+
+  private void generate(List<String> stale, Map<String, Schema> schemas, final File outDir)
+      throws MojoExecutionException {
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, stale.size())));
+    try {
+      final Map<String, Future<Void>> results = new LinkedHashMap<String, Future<Void>>();
+      for (final String filename : stale) {
+        final Schema schema = schemas.get(filename);
+        results.put(filename, executor.submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            doCompile(schema, outDir);
+            return null;
+          }
+        }));
+      }
+      for (Map.Entry<String, Future<Void>> result : results.entrySet()) {
+        try {
+          result.getValue().get();
+        } catch (ExecutionException e) {
+          throw new MojoExecutionException("Error compiling protocol file "
+              + result.getKey() + " to " + outDir, e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new MojoExecutionException("Interrupted while compiling " + result.getKey(), e);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns a description of everything besides the schema files that affects the generated code, such as the
+   * plugin version and the configuration of the mojo. All schema files are generated again when it changes.
+   *
+   * @return String The stamp, on a single line.
+   */
+  protected String getGeneratorStamp() {
+    String version = null;
+    InputStream in = AbstractAvroMojo.class.getResourceAsStream(
+        "/META-INF/maven/cascading.avro/avro-maven-plugin/pom.properties");
+    if (in != null) {
+      try {
+        Properties properties = new Properties();
+        properties.load(in);
+        version = properties.getProperty("version");
+      } catch (IOException e) {
+        // the templates are part of the stamp as well
+      } finally {
+        try { in.close(); } catch (IOException ioe) { /* ignore */ }
+      }
+    }
+    return "version=" + version;
+  }
+
+  /**
+   * Returns the stamp file of the schema files selected by the given source directory and patterns.
+   */
+  static File getStampFile(File outDir, File sourceDir, String[] includes, String[] excludes) {
+    final CRC32 checksum = new CRC32();
+    final StringBuilder key = new StringBuilder(sourceDir.getAbsolutePath());
+    for (String include : includes) {
+      key.append("\ninclude=").append(include);
+    }
+    for (String exclude : excludes) {
+      key.append("\nexclude=").append(exclude);
+    }
+    try {
+      checksum.update(key.toString().getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    return new File(outDir, STAMP_FILE_PREFIX + Long.toHexString(checksum.getValue()) + ".stamp");
+  }
+
+  /**
+   * Reads the stamp file of an output directory.
+   *
+   * @return List<String> The stamp followed by the generated files, or null if there is no stamp file.
+   */
+  private static List<String> readStamp(File stampFile) throws MojoExecutionException {
+    if (!stampFile.isFile()) {
+      return null;
+    }
+    final List<String> lines = new ArrayList<String>();
+    try {
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stampFile), "UTF-8"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line);
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Error reading " + stampFile, e);
+    }
+    return lines.isEmpty() ? null : lines;
+  }
+
+  private static void writeStamp(File stampFile, List<String> lines) throws MojoExecutionException {
+    try {
+      //noinspection ResultOfMethodCallIgnored
+      stampFile.getParentFile().mkdirs();
+      final Writer writer = new OutputStreamWriter(new FileOutputStream(stampFile), "UTF-8");
+      try {
+        for (String line : lines) {
+          writer.write(line);
+          writer.write('\n');
+        }
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Error writing " + stampFile, e);
+    }
+  }
+
+  private static String relativePath(File directory, File file) {
+    final String path = file.getPath();
+    final String prefix = directory.getPath() + File.separator;
+    return path.startsWith(prefix) ? path.substring(prefix.length()) : path;
+  }
+
+  /**
+   * Parses the schema files with the types defined so far. A file that uses a type that isn't defined yet waits for a
+   * file defining that type to be parsed and is then parsed again, so each file is only retried once per type it is
+   * missing. Files still waiting at the end are parsed on their own.
+   */
+  private Map<String, Schema> parseFiles(String[] files, File sourceDir) throws MojoExecutionException {
+    final Map<String, Schema> schemas = new LinkedHashMap<String, Schema>();
+    final Map<String, Schema> types = new HashMap<String, Schema>();
+    final LinkedList<String> pending = new LinkedList<String>(Arrays.asList(files));
+    // the files waiting for each undefined name, as named by the files
+    final Map<String, List<String>> waiting = new HashMap<String, List<String>>();
+    final Map<String, Exception> failures = new HashMap<String, Exception>();
+    while (!pending.isEmpty()) {
+      final String filename = pending.removeFirst();
+      // a failed parse may leave some of its names behind, so each file gets a fresh parser
+      final Schema.Parser parser = new Schema.Parser();
+      parser.addTypes(types);
+      try {
+        schemas.put(filename, parser.parse(new File(sourceDir, filename)));
+      } catch (SchemaParseException e) {
+        failures.put(filename, e);
+        final String undefined = getUndefinedName(e);
+        if (undefined != null) {
+          if (!waiting.containsKey(undefined)) {
+            waiting.put(undefined, new ArrayList<String>());
+          }
+          waiting.get(undefined).add(filename);
+        }
+        continue;
+      } catch (IOException e) {
+        throw new MojoExecutionException("Error reading schema file " + filename, e);
+      }
+      for (Map.Entry<String, Schema> type : parser.getTypes().entrySet()) {
+        if (types.containsKey(type.getKey())) {
+          continue;
+        }
+        types.put(type.getKey(), type.getValue());
+        // a name may have been used relative to the namespace of the file using it
+        final String fullName = type.getKey();
+        wake(waiting.remove(fullName), pending);
+        wake(waiting.remove(fullName.substring(fullName.lastIndexOf('.') + 1)), pending);
+      }
+    }
     for (String filename : files) {
+      if (schemas.containsKey(filename)) {
+        continue;
+      }
+      // e.g. files that each define the same type, or that use a type no file defines: parse them on their own
       try {
-        doCompile(filename, sourceDir, outDir);
+        schemas.put(filename, new Schema.Parser().parse(new File(sourceDir, filename)));
+      } catch (SchemaParseException e) {
+        throw new MojoExecutionException("Error parsing schema file " + filename, failures.get(filename));
       } catch (IOException e) {
-        throw new MojoExecutionException("Error compiling protocol file "
-            + filename + " to " + outDir, e);
+        throw new MojoExecutionException("Error reading schema file " + filename, e);
       }
     }
+    // keep the order of the files, not the order they were parsed in
+    final Map<String, Schema> ordered = new LinkedHashMap<String, Schema>();
+    for (String filename : files) {
+      ordered.put(filename, schemas.get(filename));
+    }
+    return ordered;
+  }
+
+  private static void wake(List<String> waiting, LinkedList<String> pending) {
+    if (waiting != null) {
+      pending.addAll(waiting);
+    }
+  }
+
+  /**
+   * Returns the name a parse failed on because it isn't defined, or null if it failed for another reason.
+   */
+  private static String getUndefinedName(SchemaParseException e) {
+    final String message = e.getMessage();
+    if (message == null || !message.startsWith(UNDEFINED_NAME)) {
+      return null;
+    }
+    String name = message.substring(UNDEFINED_NAME.length()).trim();
+    if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+      name = name.substring(1, name.length() - 1);
+    }
+    return name;
+  }
+
+  /**
+   * Maps the full name of every named type to the file that defines it.
+   */
+  private static Map<String, String> definingFiles(Map<String, Schema> schemas) {
+    final Map<String, String> definingFiles = new HashMap<String, String>();
+    for (Map.Entry<String, Schema> entry : schemas.entrySet()) {
+      addDefinitions(entry.getValue(), entry.getKey(), definingFiles);
+    }
+    return definingFiles;
+  }
+
+  private static void addDefinitions(Schema schema, String filename, Map<String, String> definingFiles) {
+    switch (schema.getType()) {
+      case RECORD:
+        if (definingFiles.containsKey(schema.getFullName())) {
+          return;
+        }
+        definingFiles.put(schema.getFullName(), filename);
+        for (Schema.Field field : schema.getFields()) {
+          addDefinitions(field.schema(), filename, definingFiles);
+        }
+        break;
+      case ENUM:
+      case FIXED:
+        if (!definingFiles.containsKey(schema.getFullName())) {
+          definingFiles.put(schema.getFullName(), filename);
+        }
+        break;
+      case ARRAY:
+        addDefinitions(schema.getElementType(), filename, definingFiles);
+        break;
+      case MAP:
+        addDefinitions(schema.getValueType(), filename, definingFiles);
+        break;
+      case UNION:
+        for (Schema type : schema.getTypes()) {
+          addDefinitions(type, filename, definingFiles);
+        }
+        break;
+      default:
+        break;
+    }
   }
 
-  protected abstract void doCompile(String filename, File sourceDirectory, File outputDirectory) throws IOException;
+  /**
+   * Returns the latest modification time of the files that define the named types used by a schema.
+   */
+  private static long lastModified(Schema schema, File sourceDir, Map<String, String> definingFiles,
+                                   List<Schema> visited) {
+    long lastModified = 0;
+    switch (schema.getType()) {
+      case RECORD:
+        if (visited.contains(schema)) {
+          return 0;
+        }
+        visited.add(schema);
+        for (Schema.Field field : schema.getFields()) {
+          lastModified = Math.max(lastModified, lastModified(field.schema(), sourceDir, definingFiles, visited));
+        }
+        return Math.max(lastModified, definitionModified(schema, sourceDir, definingFiles));
+      case ENUM:
+      case FIXED:
+        return definitionModified(schema, sourceDir, definingFiles);
+      case ARRAY:
+        return lastModified(schema.getElementType(), sourceDir, definingFiles, visited);
+      case MAP:
+        return lastModified(schema.getValueType(), sourceDir, definingFiles, visited);
+      case UNION:
+        for (Schema type : schema.getTypes()) {
+          lastModified = Math.max(lastModified, lastModified(type, sourceDir, definingFiles, visited));
+        }
+        return lastModified;
+      default:
+        return 0;
+    }
+  }
+
+  private static long definitionModified(Schema schema, File sourceDir, Map<String, String> definingFiles) {
+    final String filename = definingFiles.get(schema.getFullName());
+    return filename == null ? 0 : new File(sourceDir, filename).lastModified();
+  }
+
+  /**
+   * Generates the code for one schema file. This is called from several threads at once.
+   *
+   * @param schema          The schema defined by the file, with the types of other files resolved.
+   * @param outputDirectory The directory to write the generated sources to.
+   * @throws IOException
+   */
+  protected abstract void doCompile(Schema schema, File outputDirectory) throws IOException;
+
+  /**
+   * Returns the files {@link #doCompile(Schema, File)} writes for a schema, which are compared with the schema file
+   * to skip schemas that haven't changed.
+   *
+   * @param schema          The schema defined by the file.
+   * @param outputDirectory The directory the generated sources are written to.
+   * @return List<File> The generated files.
+   */
+  protected abstract List<File> getOutputFiles(Schema schema, File outputDirectory);
 
   protected abstract String[] getIncludes();
 
@@ -22,7 +22,11 @@ import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
 
 /**
  * Class CascadingFieldsGenerator
@@ -40,19 +44,75 @@ public class CascadingFieldsGenerator {
     }
 
     public void generate(Schema schema, Writer output) throws IOException {
+        merge("fields.vm", schema, output);
+    }
+
+    /**
+     * Generates a class that converts between Tuples and the specific record class of the schema, field by field at
+     * fixed positions. Records nested in the schema get their own conversion methods in the same class. Arrays, maps
+     * and unions of several types are passed on unchanged.
+     *
+     * @param schema The record schema.
+     * @param output Where to write the class to.
+     * @throws IOException
+     */
+    public void generateConverter(Schema schema, Writer output) throws IOException {
+        merge("converter.vm", schema, output);
+    }
+
+    private void merge(String template, Schema schema, Writer output) throws IOException {
         final VelocityContext context = new VelocityContext();
         context.put("schema", schema);
         context.put("this", this);
 
-        engine.mergeTemplate(path + "fields.vm", "UTF-8", context, output);
+        engine.mergeTemplate(path + template, "UTF-8", context, output);
+    }
+
+    /**
+     * Returns a checksum of the templates, so code generated by other versions of them can be told apart.
+     */
+    public String getTemplateChecksum() {
+        final CRC32 checksum = new CRC32();
+        final byte[] buffer = new byte[4096];
+        for (String template : new String[]{"fields.vm", "converter.vm"}) {
+            final InputStream in = getClass().getResourceAsStream(path + template);
+            if (in == null) {
+                throw new IllegalStateException("Missing template " + template);
+            }
+            try {
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        checksum.update(buffer, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't read template " + template, e);
+            }
+        }
+        return Long.toHexString(checksum.getValue());
     }
 
     public String fieldsClassName(String name) {
         return name + "Fields";
     }
 
+    public String converterClassName(String name) {
+        return name + "Converter";
+    }
+
     public File getDestination(Schema schema, File outputDirectory) {
-        final String classFile = fieldsClassName(schema.getName()) + ".java";
+        return getDestination(schema, fieldsClassName(schema.getName()), outputDirectory);
+    }
+
+    public File getConverterDestination(Schema schema, File outputDirectory) {
+        return getDestination(schema, converterClassName(schema.getName()), outputDirectory);
+    }
+
+    private File getDestination(Schema schema, String className, File outputDirectory) {
+        final String classFile = className + ".java";
         final String packageDir;
         if(schema.getNamespace() == null) {
             packageDir = "";
@@ -61,4 +121,237 @@ public class CascadingFieldsGenerator {
         }
         return new File(new File(outputDirectory, packageDir), classFile);
     }
+
+    /**
+     * Returns the record schema and every record nested in its fields, directly or through a nullable union.
+     */
+    public List<Schema> recordTypes(Schema schema) {
+        final List<Schema> records = new ArrayList<Schema>();
+        addRecordTypes(schema, records);
+        return records;
+    }
+
+    private void addRecordTypes(Schema schema, List<Schema> records) {
+        if (records.contains(schema)) {
+            return;
+        }
+        records.add(schema);
+        for (Schema.Field field : schema.getFields()) {
+            final Schema type = nonNullType(field.schema());
+            if (type.getType() == Schema.Type.RECORD) {
+                addRecordTypes(type, records);
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the method that converts a Tuple into {@code record}, in the converter of {@code root}.
+     * Records are named by their simple name, unless another record of the converter has the same simple name in a
+     * different namespace. Such records are named by their full name instead, e.g. {@code to_com_example_Address},
+     * so their methods don't clash.
+     */
+    public String toRecordMethod(Schema root, Schema record) {
+        for (Schema other : recordTypes(root)) {
+            if (other != record && other.getName().equals(record.getName())) {
+                return "to_" + record.getFullName().replace('.', '_');
+            }
+        }
+        return "to" + record.getName();
+    }
+
+    /**
+     * Returns the Java type the specific compiler uses for a schema.
+     */
+    public String javaType(Schema schema) {
+        switch (schema.getType()) {
+            case RECORD:
+            case ENUM:
+            case FIXED:
+                return schema.getFullName();
+            case ARRAY:
+                return "java.util.List<" + javaType(schema.getElementType()) + ">";
+            case MAP:
+                return "java.util.Map<java.lang.CharSequence," + javaType(schema.getValueType()) + ">";
+            case UNION:
+                final Schema type = nonNullType(schema);
+                return type == schema ? "java.lang.Object" : javaType(type);
+            case STRING:
+                return "java.lang.CharSequence";
+            case BYTES:
+                return "java.nio.ByteBuffer";
+            case INT:
+                return "java.lang.Integer";
+            case LONG:
+                return "java.lang.Long";
+            case FLOAT:
+                return "java.lang.Float";
+            case DOUBLE:
+                return "java.lang.Double";
+            case BOOLEAN:
+                return "java.lang.Boolean";
+            case NULL:
+                return "java.lang.Void";
+            default:
+                throw new IllegalArgumentException("Unknown type " + schema);
+        }
+    }
+
+    public String getter(Schema.Field field) {
+        return accessorName("get", field);
+    }
+
+    public String setter(Schema.Field field) {
+        return accessorName("set", field);
+    }
+
+    /**
+     * Builds an accessor name the way the specific compiler does: underscores are dropped and the letter after them,
+     * as well as the first letter, is upper-cased.
+     */
+    private String accessorName(String prefix, Schema.Field field) {
+        final StringBuilder name = new StringBuilder(prefix);
+        boolean upper = true;
+        for (char c : field.name().toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else if (upper) {
+                name.append(Character.toUpperCase(c));
+                upper = false;
+            } else {
+                name.append(c);
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Returns the Java expression that turns element {@code pos} of {@code tuple} into the value of a record field,
+     * in the converter of {@code root}.
+     */
+    public String toRecordValue(Schema root, Schema schema, int pos) {
+        final String value = "tuple.getObject(" + pos + ")";
+        final Schema type = nonNullType(schema);
+        switch (type.getType()) {
+            case RECORD:
+                return toRecordMethod(root, type) + "(asTuple(" + value + "))";
+            case ENUM:
+                return "asEnum(" + type.getFullName() + ".class, " + value + ")";
+            case FIXED:
+                return "asFixed(new " + type.getFullName() + "(), " + value + ")";
+            case BYTES:
+                return "asByteBuffer(" + value + ")";
+            case NULL:
+                return "null";
+            default:
+                return "(" + javaType(type) + ") " + value;
+        }
+    }
+
+    /**
+     * Returns the Java expression that turns a record field, read with {@code getter}, into a Tuple element.
+     */
+    public String toTupleValue(Schema schema, String getter) {
+        final String value = "record." + getter + "()";
+        final Schema type = nonNullType(schema);
+        switch (type.getType()) {
+            case RECORD:
+                return "toTuple(" + value + ")";
+            case STRING:
+            case ENUM:
+                return "asString(" + value + ")";
+            case FIXED:
+            case BYTES:
+                return "asBytesWritable(" + value + ")";
+            case NULL:
+                return "null";
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Returns the Java type a typed accessor in the fields class returns for a field of the given schema. Fields that
+     * can't be null are returned as primitives.
+     */
+    public String accessorType(Schema schema) {
+        final Schema type = nonNullType(schema);
+        final boolean nullable = type != schema;
+        switch (type.getType()) {
+            case BOOLEAN:
+                return nullable ? "java.lang.Boolean" : "boolean";
+            case INT:
+                return nullable ? "java.lang.Integer" : "int";
+            case LONG:
+                return nullable ? "java.lang.Long" : "long";
+            case FLOAT:
+                return nullable ? "java.lang.Float" : "float";
+            case DOUBLE:
+                return nullable ? "java.lang.Double" : "double";
+            case STRING:
+            case ENUM:
+                return "String";
+            case BYTES:
+            case FIXED:
+                return "org.apache.hadoop.io.BytesWritable";
+            case ARRAY:
+                return "java.util.List<?>";
+            case MAP:
+                return "java.util.Map<?, ?>";
+            case RECORD:
+                return "Tuple";
+            default:
+                return "Object";
+        }
+    }
+
+    /**
+     * Returns the Java expression a typed accessor in the fields class uses to read a field from {@code tuple}. The
+     * field is read by its position constant, and nullable unions are unwrapped here rather than at run time.
+     */
+    public String accessorValue(Schema.Field field) {
+        final String pos = field.name().toUpperCase() + "_POS";
+        final Schema type = nonNullType(field.schema());
+        final String accessorType = accessorType(field.schema());
+        if (type == field.schema()) {
+            switch (type.getType()) {
+                case BOOLEAN:
+                    return "tuple.getBoolean(" + pos + ")";
+                case INT:
+                    return "tuple.getInteger(" + pos + ")";
+                case LONG:
+                    return "tuple.getLong(" + pos + ")";
+                case FLOAT:
+                    return "tuple.getFloat(" + pos + ")";
+                case DOUBLE:
+                    return "tuple.getDouble(" + pos + ")";
+                default:
+                    break;
+            }
+        }
+        if (accessorType.equals("String")) {
+            return "tuple.getString(" + pos + ")";
+        } else if (accessorType.equals("Object")) {
+            return "tuple.getObject(" + pos + ")";
+        }
+        return "(" + accessorType + ") tuple.getObject(" + pos + ")";
+    }
+
+    /**
+     * Returns the only non-null branch of a nullable union, or the schema itself.
+     */
+    private static Schema nonNullType(Schema schema) {
+        if (schema.getType() != Schema.Type.UNION) {
+            return schema;
+        }
+        Schema type = null;
+        for (Schema branch : schema.getTypes()) {
+            if (branch.getType() == Schema.Type.NULL) {
+                continue;
+            } else if (type != null) {
+                return schema;
+            }
+            type = branch;
+        }
+        return type == null ? schema : type;
+    }
 }
@@ -20,6 +20,8 @@ import org.apache.avro.Schema;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class CascadingFieldsMojo
@@ -88,6 +90,14 @@ public class CascadingFieldsMojo extends AbstractAvroMojo {
      */
     private String[] testIncludes = new String[] { "**/*.avsc" };
 
+    /**
+     * Also generate a converter class per schema, which turns Tuples into the
+     * specific record class and back without looking at the schema at run time.
+     *
+     * @parameter expression="${generateConverters}" default-value="false"
+     */
+    private boolean generateConverters;
+
     private final CascadingFieldsGenerator generator;
 
     public CascadingFieldsMojo() {
@@ -135,17 +145,40 @@ public class CascadingFieldsMojo extends AbstractAvroMojo {
     }
 
     @Override
-    protected void doCompile(String filename, File sourceDirectory, File outputDirectory) throws IOException {
-        final File src = new File(sourceDirectory, filename);
-        final Schema.Parser parser = new Schema.Parser();
-        final Schema schema = parser.parse(src);
+    protected void doCompile(Schema schema, File outputDirectory) throws IOException {
+        write(schema, generator.getDestination(schema, outputDirectory), false);
+        if (generateConverters) {
+            write(schema, generator.getConverterDestination(schema, outputDirectory), true);
+        }
+    }
 
-        final File dest = generator.getDestination(schema, outputDirectory);
+    @Override
+    protected String getGeneratorStamp() {
+        return super.getGeneratorStamp() + ",templates=" + generator.getTemplateChecksum()
+                + ",generateConverters=" + generateConverters;
+    }
+
+    @Override
+    protected List<File> getOutputFiles(Schema schema, File outputDirectory) {
+        final List<File> files = new ArrayList<File>();
+        files.add(generator.getDestination(schema, outputDirectory));
+        if (generateConverters) {
+            files.add(generator.getConverterDestination(schema, outputDirectory));
+        }
+        return files;
+    }
 
+    private void write(Schema schema, File dest, boolean converter) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        dest.getParentFile().mkdirs();
         final FileWriter output = new FileWriter(dest);
         boolean success = false;
         try {
-            generator.generate(schema, output);
+            if (converter) {
+                generator.generateConverter(schema, output);
+            } else {
+                generator.generate(schema, output);
+            }
             success = true;
         } finally {
             try { output.close(); } catch(IOException ioe) { /* ignore */ }
@@ -29,6 +29,8 @@ import java.io.StringWriter;
 import java.io.Writer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Class CascadingFieldsGeneratorTest
@@ -49,6 +51,44 @@ public class CascadingFieldsGeneratorTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testGenerateConverter() throws Exception {
+        final CascadingFieldsGenerator gen = new CascadingFieldsGenerator();
+        final Schema schema = getSchema();
+
+        final Writer writer = new StringWriter();
+        gen.generateConverter(schema, writer);
+        writer.close();
+
+        final String actual = writer.toString();
+        final String expected = Resources.toString(getClass().getResource("expected-converter.txt"), Charsets.UTF_8);
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testGenerateConverterWithClashingNames() throws Exception {
+        final CascadingFieldsGenerator gen = new CascadingFieldsGenerator();
+        final Schema schema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"Person\", "
+                + "\"namespace\":\"com.example\", \"fields\":["
+                + "{\"name\":\"home\", \"type\":{\"type\":\"record\", \"name\":\"Address\", "
+                + "\"namespace\":\"com.example.home\", \"fields\":[{\"name\":\"street\", \"type\":\"string\"}]}},"
+                + "{\"name\":\"work\", \"type\":{\"type\":\"record\", \"name\":\"Address\", "
+                + "\"namespace\":\"com.example.work\", \"fields\":[{\"name\":\"city\", \"type\":\"string\"}]}}]}");
+
+        final Writer writer = new StringWriter();
+        gen.generateConverter(schema, writer);
+        writer.close();
+        final String actual = writer.toString();
+
+        assertTrue(actual.contains("public static com.example.Person toPerson(Tuple tuple)"));
+        assertTrue(actual.contains("public static com.example.home.Address to_com_example_home_Address(Tuple tuple)"));
+        assertTrue(actual.contains("public static com.example.work.Address to_com_example_work_Address(Tuple tuple)"));
+        assertTrue(actual.contains("record.setHome(to_com_example_home_Address(asTuple(tuple.getObject(0))));"));
+        assertTrue(actual.contains("record.setWork(to_com_example_work_Address(asTuple(tuple.getObject(1))));"));
+        assertFalse(actual.contains("toAddress("));
+    }
+
     @Test
     public void testDestFile() throws Exception {
         final CascadingFieldsGenerator gen = new CascadingFieldsGenerator();
@@ -58,6 +98,15 @@ public class CascadingFieldsGeneratorTest {
         assertEquals(new File("/tmp/com/maxpoint/cascading/avro/Test1Fields.java"), actual);
     }
 
+    @Test
+    public void testConverterDestFile() throws Exception {
+        final CascadingFieldsGenerator gen = new CascadingFieldsGenerator();
+        final Schema schema = getSchema();
+
+        final File actual = gen.getConverterDestination(schema, new File("/tmp"));
+        assertEquals(new File("/tmp/com/maxpoint/cascading/avro/Test1Converter.java"), actual);
+    }
+
     private Schema getSchema() throws IOException {
         final Schema.Parser parser = new Schema.Parser();
         return parser.parse(getClass().getResourceAsStream("test1.avsc"));
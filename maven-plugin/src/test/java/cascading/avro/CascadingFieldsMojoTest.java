@@ -0,0 +1,247 @@
+/*
+* Copyright (c) 2012 MaxPoint Interactive, Inc. All Rights Reserved.
+*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package cascading.avro;
+
+import org.apache.avro.Schema;
+import org.apache.maven.project.MavenProject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class CascadingFieldsMojoTest
+ */
+public class CascadingFieldsMojoTest {
+    private static final long OLD = 1000000000000L;
+    private static final long GENERATED = OLD + 100000L;
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private File sourceDir;
+    private File outputDir;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceDir = tempDir.newFolder("avro");
+        outputDir = new File(tempDir.getRoot(), "generated");
+    }
+
+    @Test
+    public void testSkipsUpToDateFiles() throws Exception {
+        writeSchema("a.avsc", record("A", "{\"name\":\"x\", \"type\":\"int\"}"), OLD);
+        writeSchema("b.avsc", record("B", "{\"name\":\"y\", \"type\":\"string\"}"), OLD);
+        newMojo(false, 1).execute();
+        assertTrue(output("AFields").exists());
+        assertTrue(output("BFields").exists());
+
+        touchOutputs();
+        newMojo(false, 1).execute();
+        assertEquals(GENERATED, output("AFields").lastModified());
+        assertEquals(GENERATED, output("BFields").lastModified());
+
+        // only the changed file is generated again
+        new File(sourceDir, "a.avsc").setLastModified(GENERATED + 100000L);
+        newMojo(false, 1).execute();
+        assertTrue(output("AFields").lastModified() != GENERATED);
+        assertEquals(GENERATED, output("BFields").lastModified());
+    }
+
+    @Test
+    public void testRegeneratesFilesUsingChangedTypes() throws Exception {
+        writeSchema("a.avsc", record("A", "{\"name\":\"x\", \"type\":\"int\"}"), OLD);
+        // b is listed before the file that defines the type it uses
+        writeSchema("0b.avsc", record("B", "{\"name\":\"a\", \"type\":\"test.A\"}"), OLD);
+        writeSchema("c.avsc", record("C", "{\"name\":\"z\", \"type\":\"long\"}"), OLD);
+        newMojo(false, 1).execute();
+        assertTrue(output("BFields").exists());
+
+        touchOutputs();
+        new File(sourceDir, "a.avsc").setLastModified(GENERATED + 100000L);
+        newMojo(false, 1).execute();
+        assertTrue(output("AFields").lastModified() != GENERATED);
+        assertTrue(output("BFields").lastModified() != GENERATED);
+        assertEquals(GENERATED, output("CFields").lastModified());
+    }
+
+    @Test
+    public void testGeneratesInParallel() throws Exception {
+        for (int i = 0; i < 16; i++) {
+            writeSchema("r" + i + ".avsc", record("R" + i, "{\"name\":\"f" + i + "\", \"type\":\"int\"}"), OLD);
+        }
+        newMojo(true, 4).execute();
+
+        final CascadingFieldsGenerator generator = new CascadingFieldsGenerator();
+        for (int i = 0; i < 16; i++) {
+            final Schema schema = new Schema.Parser().parse(new File(sourceDir, "r" + i + ".avsc"));
+            final Writer expected = new StringWriter();
+            generator.generate(schema, expected);
+            assertEquals(expected.toString(), read(output("R" + i + "Fields")));
+            assertTrue(output("R" + i + "Converter").exists());
+        }
+    }
+
+    @Test
+    public void testRegeneratesWhenConfigurationChanges() throws Exception {
+        writeSchema("a.avsc", record("A", "{\"name\":\"x\", \"type\":\"int\"}"), OLD);
+        newMojo(false, 1).execute();
+        assertFalse(output("AConverter").exists());
+
+        // the schema is unchanged, but converters are wanted now
+        touchOutputs();
+        newMojo(true, 1).execute();
+        assertTrue(output("AConverter").exists());
+        assertTrue(output("AFields").lastModified() != GENERATED);
+
+        // and no longer
+        newMojo(false, 1).execute();
+        assertFalse(output("AConverter").exists());
+        assertTrue(output("AFields").exists());
+
+        // as if generated by another version of the plugin
+        touchOutputs();
+        final File stamp = AbstractAvroMojo.getStampFile(outputDir, sourceDir, new String[]{"**/*.avsc"}, new String[0]);
+        final String stampContent = read(stamp);
+        final Writer writer = new FileWriter(stamp);
+        writer.write("version=0.1" + stampContent.substring(stampContent.indexOf(',')));
+        writer.close();
+        newMojo(false, 1).execute();
+        assertTrue(output("AFields").lastModified() != GENERATED);
+    }
+
+    @Test
+    public void testExecutionsShareOutputDirectory() throws Exception {
+        final File otherSourceDir = tempDir.newFolder("other-avro");
+        writeSchema("a.avsc", record("A", "{\"name\":\"x\", \"type\":\"int\"}"), OLD);
+        writeSchema(new File(otherSourceDir, "b.avsc"), record("B", "{\"name\":\"y\", \"type\":\"string\"}"), OLD);
+        newMojo(sourceDir, false, 1).execute();
+        newMojo(otherSourceDir, false, 1).execute();
+        assertTrue(output("AFields").exists());
+        assertTrue(output("BFields").exists());
+
+        // neither execution takes the other's files for its own
+        touchOutputs();
+        newMojo(sourceDir, false, 1).execute();
+        newMojo(otherSourceDir, false, 1).execute();
+        assertEquals(GENERATED, output("AFields").lastModified());
+        assertEquals(GENERATED, output("BFields").lastModified());
+
+        // and only deletes what it generated itself
+        new File(otherSourceDir, "b.avsc").delete();
+        newMojo(otherSourceDir, false, 1).execute();
+        assertFalse(output("BFields").exists());
+        assertEquals(GENERATED, output("AFields").lastModified());
+    }
+
+    @Test
+    public void testParsesChainOfTypes() throws Exception {
+        // each file uses the type of the next one by its name relative to the namespace, and is listed before it
+        for (int i = 0; i < 8; i++) {
+            writeSchema("r" + i + ".avsc", record("R" + i, "{\"name\":\"next\", \"type\":\"R" + (i + 1) + "\"}"), OLD);
+        }
+        writeSchema("r8.avsc", record("R8", "{\"name\":\"x\", \"type\":\"int\"}"), OLD);
+        newMojo(false, 1).execute();
+        for (int i = 0; i <= 8; i++) {
+            assertTrue(output("R" + i + "Fields").exists());
+        }
+    }
+
+    private CascadingFieldsMojo newMojo(boolean generateConverters, int threads) throws Exception {
+        return newMojo(sourceDir, generateConverters, threads);
+    }
+
+    private CascadingFieldsMojo newMojo(File sourceDir, boolean generateConverters, int threads) throws Exception {
+        final CascadingFieldsMojo mojo = new CascadingFieldsMojo();
+        set(mojo, "project", new MavenProject());
+        set(mojo, "threads", threads);
+        set(mojo, "sourceDirectory", sourceDir);
+        set(mojo, "outputDirectory", outputDir);
+        set(mojo, "testSourceDirectory", new File(tempDir.getRoot(), "missing"));
+        set(mojo, "testOutputDirectory", new File(tempDir.getRoot(), "generated-test"));
+        set(mojo, "generateConverters", generateConverters);
+        return mojo;
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Class<?> type = target.getClass();
+        while (true) {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+                if (type == null) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static String record(String name, String field) {
+        return "{\"type\":\"record\", \"name\":\"" + name + "\", \"namespace\":\"test\", \"fields\":[" + field + "]}";
+    }
+
+    private void writeSchema(String filename, String schema, long lastModified) throws IOException {
+        writeSchema(new File(sourceDir, filename), schema, lastModified);
+    }
+
+    private static void writeSchema(File file, String schema, long lastModified) throws IOException {
+        final Writer writer = new FileWriter(file);
+        writer.write(schema);
+        writer.close();
+        file.setLastModified(lastModified);
+    }
+
+    private File output(String className) {
+        return new File(new File(outputDir, "test"), className + ".java");
+    }
+
+    private void touchOutputs() {
+        for (File file : new File(outputDir, "test").listFiles()) {
+            file.setLastModified(GENERATED);
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        final FileReader reader = new FileReader(file);
+        try {
+            final StringBuilder content = new StringBuilder();
+            final char[] buffer = new char[4096];
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                content.append(buffer, 0, n);
+            }
+            return content.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
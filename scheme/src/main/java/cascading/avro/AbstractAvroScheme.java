@@ -0,0 +1,494 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro;
+
+import cascading.avro.mapred.RawAvroWrapper;
+import cascading.avro.serialization.AvroSpecificRecordSerialization;
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.CompositeTap;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroSerialization;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The part of {@link AvroScheme} and {@link TrevniScheme} that doesn't depend on the file format: the schema, how
+ * records are converted to and from tuples, and flattening of nested records. The subclasses add the input and output
+ * formats and the options that tune them.
+ */
+public abstract class AbstractAvroScheme extends Scheme<JobConf, RecordReader, OutputCollector, Object[], Object[]> {
+
+  private static final PathFilter filter = new PathFilter() {
+    @Override
+    public boolean accept(Path path) {
+      return !path.getName().startsWith("_");
+    }
+  };
+  Schema schema;
+  AvroToCascading.Options sourceOptions = new AvroToCascading.Options();
+  boolean flatten = false;
+  private transient RecordFlattener sourceFlattener;
+  private transient RecordFlattener sinkFlattener;
+  private transient Schema lastRecordSchema;
+  private transient boolean lastRecordSchemaEqual;
+
+  /**
+   * Note that if schema is null, the Avro schema will be inferred from one of the source files.
+   *
+   * @param schema Avro schema, or null if this is to be inferred.
+   */
+  protected AbstractAvroScheme(Schema schema) {
+    this.schema = schema;
+
+    if (schema == null) {
+      setSinkFields(Fields.ALL);
+      setSourceFields(Fields.UNKNOWN);
+    } else {
+      Fields cascadingFields = new Fields();
+      for (Field avroField : schema.getFields()) {
+        cascadingFields = cascadingFields.append(
+            new Fields(avroField.name()));
+      }
+      setSinkFields(cascadingFields);
+      setSourceFields(cascadingFields);
+    }
+  }
+
+  /**
+   * Helper method to read in a schema when de-serializing the object
+   *
+   * @param in The ObjectInputStream containing the serialized object
+   * @return Schema The parsed schema, or null if the scheme had none.
+   */
+  protected static Schema readSchema(java.io.ObjectInputStream in) throws IOException {
+    final String json = in.readUTF();
+    if (json.length() == 0) {
+      return null;
+    }
+    final Schema.Parser parser = new Schema.Parser();
+    return parser.parse(json);
+  }
+
+  /**
+   * When set, Avro maps and arrays are sourced as read-only Map and List views that convert their elements on first
+   * access, instead of being copied into a new HashMap or ArrayList for every record. This is cheaper when most
+   * operations never look at those fields. The views must not cross a GroupBy, CoGroup or other shuffle: only Java
+   * serialization replaces them with plain collections, while Hadoop's TupleSerialization and cascading.kryo
+   * serialize the view classes themselves, or fail on them. Copy them into a HashMap or ArrayList, e.g. in a
+   * Function, before they are grouped on or passed to the next job.
+   *
+   * @param lazyCollections true to source maps and arrays as lazy views
+   */
+  public void setLazyCollections(boolean lazyCollections) {
+    sourceOptions.setLazyCollections(lazyCollections);
+  }
+
+  /**
+   * When set, each record is sourced as a Tuple backed by the Avro record instead of a fully converted copy. A field
+   * is only converted when it is first read, so pipes that touch a few fields of a wide record only pay for those.
+   * Nested records are converted as a whole when their field is read.
+   *
+   * @param lazyTuples true to source lazily converted Tuples
+   */
+  public void setLazyTuples(boolean lazyTuples) {
+    sourceOptions.setLazyTuples(lazyTuples);
+  }
+
+  /**
+   * Selects how Avro strings are sourced. The default, {@link GenericData.StringType#String}, decodes every string
+   * into a java.lang.String. With {@link GenericData.StringType#Utf8} the decoded Utf8 is passed on as is, and the
+   * sink writes it back without transcoding, which makes copying string-heavy records much cheaper. Note that Utf8
+   * values need a Hadoop serialization, such as cascading.kryo, if they are grouped on or passed between jobs.
+   *
+   * @param stringType the representation for string values
+   */
+  public void setStringType(GenericData.StringType stringType) {
+    sourceOptions.setStringType(stringType);
+  }
+
+  /**
+   * Selects how Avro bytes and fixed values are sourced. By default they are BytesWritables, which wrap the decoded
+   * bytes without copying when possible. With {@link AvroToCascading.BytesType#ByteBuffer} slices of the decoded
+   * buffers are sourced instead, which never copies and which the sink writes back as is. Note that ByteBuffer values
+   * need a Hadoop serialization, such as cascading.kryo, if they are grouped on or passed between jobs.
+   *
+   * @param bytesType the representation for bytes and fixed values
+   */
+  public void setBytesType(AvroToCascading.BytesType bytesType) {
+    sourceOptions.setBytesType(bytesType);
+  }
+
+  /**
+   * If true, the leaf fields of nested records are sourced and sunk as top level fields, named by their path with
+   * dots, e.g. {@code user.address.city}, instead of as one Tuple per nested record. The paths are resolved once from
+   * the schema, so values are read straight from the nested records into a flat Tuple, and the sink builds the nested
+   * records from the flat fields. Leaves of an optional nested record are null when the record is, and the record is
+   * written as null when all of its leaves are. Maps, arrays and other unions are not flattened. Flattened tuples are
+   * always converted eagerly, so this takes precedence over {@link #setLazyTuples(boolean)}. As a sink, the scheme
+   * needs a schema to write flattened fields.
+   *
+   * @param flatten whether to flatten nested records
+   */
+  public void setFlatten(boolean flatten) {
+    this.flatten = flatten;
+    if (schema != null && schema.getType() == Schema.Type.RECORD) {
+      setSinkFields(flatten ? getSinkFlattener().getFields() : fieldsOf(schema));
+      setSourceFields(flatten ? getSourceFlattener().getFields() : fieldsOf(getReadSchema()));
+    }
+  }
+
+  private static Fields fieldsOf(Schema schema) {
+    Fields cascadingFields = new Fields();
+    for (Field avroField : schema.getFields()) {
+      cascadingFields = cascadingFields.append(new Fields(avroField.name()));
+    }
+    return cascadingFields;
+  }
+
+  private RecordFlattener getSourceFlattener() {
+    if (sourceFlattener == null) {
+      sourceFlattener = new RecordFlattener(getReadSchema());
+    }
+    return sourceFlattener;
+  }
+
+  private RecordFlattener getSinkFlattener() {
+    if (sinkFlattener == null) {
+      sinkFlattener = new RecordFlattener(schema);
+    }
+    return sinkFlattener;
+  }
+
+  /**
+   * Returns the schema records are read with. This is the scheme's schema, but subclasses may narrow it down, e.g.
+   * to the columns that are actually needed.
+   *
+   * @return Schema The schema used on the source side.
+   */
+  protected Schema getReadSchema() {
+    return schema;
+  }
+
+  /**
+   * Return the schema which has been set as a string
+   *
+   * @return String representing the schema
+   */
+  String getJsonSchema() {
+    if (schema == null) {
+      return "";
+    } else {
+      return schema.toString();
+    }
+  }
+
+  /**
+   * Sink method to take an outgoing tuple and write it to Avro.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param sinkCall    The cascading SinkCall object. Should be passed in by cascading automatically.
+   * @throws IOException
+   */
+  @Override
+  public void sink(
+      FlowProcess<JobConf> flowProcess,
+      SinkCall<Object[], OutputCollector> sinkCall)
+      throws IOException {
+    TupleEntry tupleEntry = sinkCall.getOutgoingEntry();
+    if (flatten) {
+      writeFlattened(tupleEntry, sinkCall.getOutput());
+    } else {
+      write(tupleEntry, schema, sinkCall.getOutput());
+    }
+  }
+
+  /**
+   * Builds the nested record from the flattened fields of a tuple and writes it.
+   */
+  void writeFlattened(TupleEntry tupleEntry, OutputCollector output) throws IOException {
+    IndexedRecord record = getSinkFlattener().unflatten(tupleEntry.getTuple());
+    collect(record, output);
+  }
+
+  /**
+   * Converts a tuple to a record of the given schema and writes it.
+   */
+  void write(TupleEntry tupleEntry, Schema schema, OutputCollector output) throws IOException {
+    IndexedRecord record = new Record(schema);
+    Object[] objectArray = CascadingToAvro.parseTupleEntry(tupleEntry, schema);
+    for (int i = 0; i < objectArray.length; i++) {
+      record.put(i, objectArray[i]);
+    }
+    collect(record, output);
+  }
+
+  /**
+   * Writes a record the sink has built from a tuple.
+   */
+  void collect(IndexedRecord record, OutputCollector output) throws IOException {
+    //noinspection unchecked
+    output.collect(new AvroWrapper<IndexedRecord>(record), NullWritable.get());
+  }
+
+  /**
+   * Checks that the sink can write the tuples it is given and registers the Avro serializations. Subclasses set the
+   * output format.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param tap         The cascading Tap object. Should be passed in by cascading automatically.
+   * @param conf        The Hadoop JobConf object. This is passed in by cascading automatically.
+   */
+  @Override
+  public void sinkConfInit(
+      FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap,
+      JobConf conf) {
+
+    if (flatten && schema == null) {
+      throw new RuntimeException("Must provide sink schema to write flattened fields");
+    }
+
+    // add AvroSerialization to io.serializations
+    addAvroSerializations(conf);
+  }
+
+  /**
+   * This method is called by cascading to set up the incoming fields. If a schema isn't present then it will
+   * go and peek at the input data to retrieve one. The field names from the schema are used to name the cascading fields.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param tap         The cascading Tap object. Should be passed in by cascading automatically.
+   * @return Fields The source cascading fields.
+   */
+  @Override
+  public Fields retrieveSourceFields(FlowProcess<JobConf> flowProcess, Tap tap) {
+    if (schema == null) {
+      try {
+        schema = getSourceSchema(flowProcess, tap);
+      } catch (IOException e) {
+        throw new RuntimeException("Can't get schema from data source");
+      }
+    }
+    Fields cascadingFields = new Fields();
+    Schema readSchema = getReadSchema();
+    if (readSchema.getType().equals(Schema.Type.NULL)) {
+      cascadingFields = Fields.NONE;
+    } else if (flatten) {
+      // the leaf paths are resolved here, once, and reused for every record
+      sourceFlattener = null;
+      cascadingFields = getSourceFlattener().getFields();
+    } else {
+      for (Field avroField : readSchema.getFields())
+        cascadingFields = cascadingFields.append(new Fields(avroField.name()));
+    }
+    setSourceFields(cascadingFields);
+    return getSourceFields();
+  }
+
+  /**
+   * Source method to take an incoming Avro record and make it a Tuple.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param sourceCall  The cascading SourceCall object. Should be passed in by cascading automatically.
+   * @return boolean true on successful parsing and collection, false on failure.
+   * @throws IOException
+   */
+  @Override
+  public boolean source(
+      FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall)
+      throws IOException {
+
+    @SuppressWarnings("unchecked") RecordReader<AvroWrapper<IndexedRecord>, Writable> input = sourceCall.getInput();
+    AvroWrapper<IndexedRecord> wrapper = input.createKey();
+    if (!input.next(wrapper, input.createValue())) {
+      return false;
+    }
+    IndexedRecord record = wrapper.datum();
+    TupleEntry entry = sourceCall.getIncomingEntry();
+
+    if (flatten) {
+      Tuple tuple = entry.getTuple();
+      tuple.clear();
+      getSourceFlattener().flatten(record, tuple, sourceOptions);
+      return true;
+    }
+    if (isSourcingRecordTuples()) {
+      // the lazy tuple is reused for every record, just like the incoming tuple it replaces
+      if (!(entry.getTuple() instanceof IndexedRecordTuple)) {
+        entry.setTuple(new IndexedRecordTuple(getReadSchema(), sourceOptions));
+      }
+      byte[] encoded = wrapper instanceof RawAvroWrapper ? ((RawAvroWrapper<IndexedRecord>) wrapper).getEncoded() : null;
+      ((IndexedRecordTuple) entry.getTuple()).reset(record, encoded);
+      return true;
+    }
+
+    Tuple tuple = entry.getTuple();
+    tuple.clear();
+
+    Object[] split = AvroToCascading.parseRecord(record, conversionSchema(record), sourceOptions);
+    tuple.addAll(split);
+
+    return true;
+  }
+
+  /**
+   * Returns whether records are sourced as tuples backed by the record, see {@link #setLazyTuples(boolean)}.
+   *
+   * @return boolean true to source {@link IndexedRecordTuple}s.
+   */
+  boolean isSourcingRecordTuples() {
+    return sourceOptions.isLazyTuples();
+  }
+
+  /**
+   * Returns the schema to convert a record with. Records are decoded with the read schema, so in a task they carry an
+   * equal but different instance of it; converting with that instance takes the positional path of
+   * {@link AvroToCascading#parseRecord(IndexedRecord, Schema, AvroToCascading.Options)} instead of resolving the
+   * record field by field. The schemas are compared once per record schema instance.
+   */
+  private Schema conversionSchema(IndexedRecord record) {
+    Schema recordSchema = record.getSchema();
+    if (recordSchema != lastRecordSchema) {
+      lastRecordSchema = recordSchema;
+      lastRecordSchemaEqual = recordSchema.equals(getReadSchema());
+    }
+    return lastRecordSchemaEqual ? recordSchema : getReadSchema();
+  }
+
+  /**
+   * Sets the schema records are read with and registers the Avro serializations. Subclasses set the input format.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param tap         The cascading Tap object. Should be passed in by cascading automatically.
+   * @param conf        The Hadoop JobConf object. This is passed in by cascading automatically.
+   */
+  @Override
+  public void sourceConfInit(
+      FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap,
+      JobConf conf) {
+
+    retrieveSourceFields(flowProcess, tap);
+    // Set the input schema
+    conf.set(AvroJob.INPUT_SCHEMA, getReadSchema().toString());
+
+    // add AvroSerialization to io.serializations
+    addAvroSerializations(conf);
+  }
+
+  /**
+   * This method peeks at the source data to get a schema when none has been provided.
+   *
+   * @param flowProcess The cascading FlowProcess object for this flow.
+   * @param tap         The cascading Tap object.
+   * @return Schema The schema of the peeked at data, or Schema.NULL if none exists.
+   */
+  private Schema getSourceSchema(FlowProcess<JobConf> flowProcess, Tap tap) throws IOException {
+
+    if (tap instanceof CompositeTap) {
+      tap = (Tap) ((CompositeTap) tap).getChildTaps().next();
+    }
+    final String path = tap.getIdentifier();
+    Path p = new Path(path);
+    final FileSystem fs = p.getFileSystem(flowProcess.getConfigCopy());
+    // Get all the input dirs
+    List<FileStatus> statuses = new LinkedList<FileStatus>(Arrays.asList(fs.globStatus(p, filter)));
+    // Now get all the things that are one level down
+    for (FileStatus status : new LinkedList<FileStatus>(statuses)) {
+      if (status.isDir())
+        for (FileStatus child : Arrays.asList(fs.listStatus(status.getPath(), filter))) {
+          if (child.isDir()) {
+            statuses.addAll(Arrays.asList(fs.listStatus(child.getPath(), filter)));
+          } else if (fs.isFile(child.getPath())) {
+            statuses.add(child);
+          }
+        }
+    }
+    for (FileStatus status : statuses) {
+      Path statusPath = status.getPath();
+      if (fs.isFile(statusPath)) {
+        // no need to open them all
+        Schema fileSchema = readFileSchema(fs, statusPath);
+        if (fileSchema != null) {
+          return fileSchema;
+        }
+      }
+    }
+    // couldn't find any Avro files, return null schema
+    return Schema.create(Schema.Type.NULL);
+  }
+
+  /**
+   * Reads the schema from the header of a data file, when peeking at the source data.
+   *
+   * @param fs   The file system the file is on.
+   * @param path The file to read.
+   * @return Schema The schema of the file, or null if it isn't a data file this scheme can read.
+   * @throws IOException
+   */
+  protected abstract Schema readFileSchema(FileSystem fs, Path path) throws IOException;
+
+  private void addAvroSerializations(JobConf conf) {
+    Collection<String> serializations = conf.getStringCollection("io.serializations");
+    if (!serializations.contains(AvroSerialization.class.getName())) {
+      serializations.add(AvroSerialization.class.getName());
+      serializations.add(AvroSpecificRecordSerialization.class.getName());
+    }
+
+
+    conf.setStrings("io.serializations", serializations.toArray(new String[serializations.size()]));
+  }
+
+  private void writeObject(java.io.ObjectOutputStream out)
+      throws IOException {
+    out.writeUTF(getJsonSchema());
+    out.writeObject(this.sourceOptions);
+    out.writeBoolean(this.flatten);
+  }
+
+  private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    this.schema = readSchema(in);
+    this.sourceOptions = (AvroToCascading.Options) in.readObject();
+    this.flatten = in.readBoolean();
+  }
+}
@@ -0,0 +1,101 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro;
+
+import cascading.avro.mapred.AvroCountInputFormat;
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+
+import java.io.IOException;
+
+/**
+ * A source-only scheme that emits one tuple per Avro data file with the path of the file and its number of records.
+ * The records are counted from the block headers, without decompressing or decoding any data, so counting is about
+ * as cheap as listing the blocks. Use {@link cascading.avro.file.AvroRecordCounter} to count without a flow.
+ */
+public class AvroCountScheme extends Scheme<JobConf, RecordReader, OutputCollector, Object[], Object[]> {
+
+  /** The fields of the tuples: the path of a file and its number of records. */
+  public static final Fields FIELDS = new Fields("path", "count");
+
+  public AvroCountScheme() {
+    super(FIELDS);
+  }
+
+  @Override
+  public void sourceConfInit(
+      FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap,
+      JobConf conf) {
+    conf.setInputFormat(AvroCountInputFormat.class);
+  }
+
+  /**
+   * Emits the path and record count of the next file.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param sourceCall  The cascading SourceCall object. Should be passed in by cascading automatically.
+   * @return boolean true if a file was counted, false if there are no more files.
+   * @throws IOException
+   */
+  @Override
+  public boolean source(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall)
+      throws IOException {
+    @SuppressWarnings("unchecked") RecordReader<Text, LongWritable> input = sourceCall.getInput();
+    Text path = input.createKey();
+    LongWritable count = input.createValue();
+    if (!input.next(path, count)) {
+      return false;
+    }
+    Tuple tuple = sourceCall.getIncomingEntry().getTuple();
+    tuple.clear();
+    tuple.add(path.toString());
+    tuple.add(count.get());
+    return true;
+  }
+
+  /**
+   * Returns false, so the planner rejects taps of this scheme as sinks.
+   *
+   * @return boolean false
+   */
+  @Override
+  public boolean isSink() {
+    return false;
+  }
+
+  @Override
+  public void sinkConfInit(
+      FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap,
+      JobConf conf) {
+    throw new UnsupportedOperationException("AvroCountScheme can only be used as a source");
+  }
+
+  @Override
+  public void sink(FlowProcess<JobConf> flowProcess, SinkCall<Object[], OutputCollector> sinkCall) throws IOException {
+    throw new UnsupportedOperationException("AvroCountScheme can only be used as a source");
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cascading.avro;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.avro.Schema;
+
+/**
+ * Read-only List over an Avro array that converts each element to its Cascading representation the first time it
+ * is read. Converted elements are cached so repeated reads are cheap. Java serialization replaces the view with a
+ * fully converted ArrayList; other Hadoop serializations don't, so the view must not cross a shuffle.
+ */
+class AvroListView extends AbstractList<Object> implements RandomAccess, Serializable {
+
+    private static final Object UNCONVERTED = new Object();
+
+    private final List<Object> source;
+    private final Schema elementSchema;
+    private final AvroToCascading.Options options;
+    private final boolean passThrough;
+    private Object[] converted;
+
+    AvroListView(List<Object> source, Schema elementSchema, AvroToCascading.Options options) {
+        this.source = source;
+        this.elementSchema = elementSchema;
+        this.options = options;
+        this.passThrough = AvroToCascading.isPassThrough(elementSchema);
+    }
+
+    @Override
+    public Object get(int index) {
+        if (passThrough) {
+            return source.get(index);
+        }
+        if (converted == null) {
+            converted = new Object[source.size()];
+            Arrays.fill(converted, UNCONVERTED);
+        }
+        Object value = converted[index];
+        if (value == UNCONVERTED) {
+            value = AvroToCascading.fromAvro(source.get(index), elementSchema, options);
+            converted[index] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return source.size();
+    }
+
+    private Object writeReplace() {
+        return new ArrayList<Object>(this);
+    }
+}
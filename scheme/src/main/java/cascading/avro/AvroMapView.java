@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cascading.avro;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.util.Utf8;
+
+/**
+ * Read-only Map with String keys over an Avro map. Lookups go straight to the underlying map, so values are only
+ * converted to their Cascading representation when they are read, and the converted values are cached. Java
+ * serialization replaces the view with a fully converted HashMap; other Hadoop serializations don't, so the view must
+ * not cross a shuffle.
+ */
+class AvroMapView extends AbstractMap<String, Object> implements Serializable {
+
+    private final Map<Object, Object> source;
+    private final Schema valueSchema;
+    private final AvroToCascading.Options options;
+    private final boolean passThrough;
+    private Map<Object, Object> converted;
+    private Boolean utf8Keys;
+
+    AvroMapView(Map<Object, Object> source, Schema valueSchema, AvroToCascading.Options options) {
+        this.source = source;
+        this.valueSchema = valueSchema;
+        this.options = options;
+        this.passThrough = AvroToCascading.isPassThrough(valueSchema);
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object sourceKey = toSourceKey(key);
+        return sourceKey == null ? null : convert(sourceKey, source.get(sourceKey));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Object sourceKey = toSourceKey(key);
+        return sourceKey != null && source.containsKey(sourceKey);
+    }
+
+    @Override
+    public int size() {
+        return source.size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                final Iterator<Entry<Object, Object>> entries = source.entrySet().iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    public Entry<String, Object> next() {
+                        Entry<Object, Object> entry = entries.next();
+                        return new SimpleImmutableEntry<String, Object>(entry.getKey().toString(),
+                                convert(entry.getKey(), entry.getValue()));
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return source.size();
+            }
+        };
+    }
+
+    /**
+     * Avro decodes map keys as Utf8 unless the schema asks for Strings, so look at one key to find out which kind of
+     * key the underlying map holds.
+     */
+    private Object toSourceKey(Object key) {
+        if (!(key instanceof CharSequence)) {
+            return null;
+        }
+        if (utf8Keys == null) {
+            Iterator<Object> keys = source.keySet().iterator();
+            if (!keys.hasNext()) {
+                return null;
+            }
+            utf8Keys = keys.next() instanceof Utf8;
+        }
+        if (utf8Keys) {
+            return key instanceof Utf8 ? key : new Utf8(key.toString());
+        }
+        return key.toString();
+    }
+
+    private Object convert(Object sourceKey, Object value) {
+        if (passThrough || value == null) {
+            return value;
+        }
+        if (converted == null) {
+            converted = new HashMap<Object, Object>();
+        }
+        Object result = converted.get(sourceKey);
+        if (result == null) {
+            result = AvroToCascading.fromAvro(value, valueSchema, options);
+            converted.put(sourceKey, result);
+        }
+        return result;
+    }
+
+    private Object writeReplace() {
+        return new HashMap<String, Object>(this);
+    }
+}
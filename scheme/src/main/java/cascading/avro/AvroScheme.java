@@ -14,29 +14,24 @@
 
 package cascading.avro;
 
-import cascading.avro.serialization.AvroSpecificRecordSerialization;
+import cascading.avro.mapred.AvroBlockInputFormat;
+import cascading.avro.mapred.DeferredAvroOutputFormat;
+import cascading.avro.mapred.RawAvroWrapper;
 import cascading.flow.FlowProcess;
-import cascading.scheme.Scheme;
 import cascading.scheme.SinkCall;
-import cascading.scheme.SourceCall;
-import cascading.tap.CompositeTap;
 import cascading.tap.Tap;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 import org.apache.avro.Schema;
-import org.apache.avro.Schema.Field;
 import org.apache.avro.file.DataFileStream;
-import org.apache.avro.generic.GenericData.Record;
 import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.mapred.*;
-import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.io.NullWritable;
-import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.RecordReader;
@@ -44,26 +39,55 @@ import org.apache.hadoop.mapred.RecordReader;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Reads and writes Avro container files. Besides the conversions of {@link AbstractAvroScheme}, it has options that
+ * tune how the files are read, e.g. reading ahead, parallel decompression or sampling, and written, e.g. on a
+ * background thread or without a schema, which is then inferred from the tuples.
+ */
+public class AvroScheme extends AbstractAvroScheme {
 
-public class AvroScheme extends Scheme<JobConf, RecordReader, OutputCollector, Object[], Object[]> {
+  /**
+   * The counters the scheme increments while sinking.
+   */
+  public enum Counters {
+    /** Records written in their encoded form, see {@link AvroScheme#setRawPassthrough(boolean)}. */
+    RAW_PASSTHROUGH_RECORDS
+  }
 
   private static final String DEFAULT_RECORD_NAME = "CascadingAvroRecord";
-  private static final PathFilter filter = new PathFilter() {
+  /** Copies the records queued for the asynchronous writer. Only the remaining bytes of a buffer are copied. */
+  private static final GenericData QUEUE_COPIER = new GenericData() {
     @Override
-    public boolean accept(Path path) {
-      return !path.getName().startsWith("_");
+    public <T> T deepCopy(Schema schema, T value) {
+      if (value instanceof ByteBuffer) {
+        ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        //noinspection unchecked
+        return (T) ByteBuffer.wrap(bytes);
+      }
+      return super.deepCopy(schema, value);
     }
   };
-  Schema schema;
+  int sinkSchemaSampleSize = 1;
+  int asyncSinkQueueSize = 0;
+  int readAheadBlocks = 0;
+  boolean decodeAhead = false;
+  int decompressionThreads = 1;
+  boolean memoryMapped = false;
+  long bufferPoolSize = 0;
+  double sampleFraction = 1.0;
+  long sampleSeed = 0;
+  long maxRecordsPerSplit = 0;
+  boolean rawPassthrough = false;
 
   /**
    * Constructor to read from an Avro source or write to an Avro sink without specifying the schema. If using as a sink,
-   * the sink Fields must have type information and currently Map and List are not supported.
+   * the schema is inferred from the tuples written by each task, see {@link #setSinkSchemaSampleSize(int)}.
    */
   public AvroScheme() {
     this(null);
@@ -83,51 +107,156 @@ public class AvroScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
   /**
    * Create a new Cascading 2.0 scheme suitable for reading and writing data using the Avro serialization format.
    * Note that if schema is null, the Avro schema will be inferred from one of the source files (if this scheme
-   * is being used as a source). At the moment, we are unable to infer a schema for a sink (this will change soon with
-   * a new version of cascading though).
+   * is being used as a source), or from the first tuples written by each task (if it is used as a sink).
    *
-   * @param schema Avro schema, or null if this is to be inferred from source file. Note that a runtime exception will happen
-   *               if the AvroScheme is used as a sink and no schema is supplied.
+   * @param schema Avro schema, or null if this is to be inferred from the source files or the sink tuples.
    */
   public AvroScheme(Schema schema) {
-    this.schema = schema;
+    super(schema);
+  }
 
-    if (schema == null) {
-      setSinkFields(Fields.ALL);
-      setSourceFields(Fields.UNKNOWN);
-    } else {
-      Fields cascadingFields = new Fields();
-      for (Field avroField : schema.getFields()) {
-        cascadingFields = cascadingFields.append(
-            new Fields(avroField.name()));
-      }
-      setSinkFields(cascadingFields);
-      setSourceFields(cascadingFields);
+  /**
+   * Sets how many tuples a sink without a schema looks at before it settles on the schema of its output. The
+   * tuples are held back until the schema is known, and every one of them is used to widen the inferred types, e.g.
+   * an int field that also holds longs is written as a long. With the default of 1 the schema is taken from the first
+   * tuple. The schema is inferred once per task, and top level fields are always nullable.
+   *
+   * @param sinkSchemaSampleSize the number of tuples to infer the sink schema from, at least 1
+   */
+  public void setSinkSchemaSampleSize(int sinkSchemaSampleSize) {
+    if (sinkSchemaSampleSize < 1) {
+      throw new IllegalArgumentException("Sample size must be at least 1");
     }
+    this.sinkSchemaSampleSize = sinkSchemaSampleSize;
   }
 
   /**
-   * Helper method to read in a schema when de-serializing the object
+   * When set to a positive number, records are encoded, compressed and written to the file system on a background
+   * thread, so the pipe can go on computing while the output is compressed. Up to this many records wait for the
+   * writer; once the queue is full, the sink waits for the writer to catch up. Errors of the writer are thrown from
+   * the sink, and all queued records are written when the output is closed. The sink queues copies of the records it
+   * builds, as bytes and fixed values wrap the arrays of the tuple's BytesWritable, byte[] or ByteBuffer values, which
+   * an upstream operation may reuse before the record is encoded. A {@link PackedAvroScheme} queues copies of its
+   * records, since their source may reuse them.
    *
-   * @param in The ObjectInputStream containing the serialized object
-   * @return Schema The parsed schema.
+   * @param asyncSinkQueueSize the number of records that may wait to be written, or 0 to write them on the pipe's
+   *                           thread (the default)
    */
-  protected static Schema readSchema(java.io.ObjectInputStream in) throws IOException {
-    final Schema.Parser parser = new Schema.Parser();
-    return parser.parse(in.readUTF());
+  public void setAsyncSinkQueueSize(int asyncSinkQueueSize) {
+    if (asyncSinkQueueSize < 0) {
+      throw new IllegalArgumentException("Queue size must not be negative");
+    }
+    this.asyncSinkQueueSize = asyncSinkQueueSize;
   }
 
   /**
-   * Return the schema which has been set as a string
+   * When set to a positive number, the source reads and decompresses the next Avro blocks of its split on a
+   * background thread while the pipe works on the records of the current one. Up to this many blocks are held in
+   * memory ahead of the pipe, so the memory used grows with the block size the files were written with.
    *
-   * @return String representing the schema
+   * @param readAheadBlocks the number of blocks to read ahead, or 0 to read them on the pipe's thread (the default)
    */
-  String getJsonSchema() {
-    if (schema == null) {
-      return "";
-    } else {
-      return schema.toString();
+  public void setReadAheadBlocks(int readAheadBlocks) {
+    if (readAheadBlocks < 0) {
+      throw new IllegalArgumentException("Number of blocks must not be negative");
+    }
+    this.readAheadBlocks = readAheadBlocks;
+  }
+
+  /**
+   * If true, the blocks read ahead are also decoded into records on the background thread, leaving only the
+   * conversion to tuples to the pipe's thread. This only has an effect together with
+   * {@link #setReadAheadBlocks(int)}. Every record is then a new object rather than one reused by the reader.
+   *
+   * @param decodeAhead whether to decode records on the background thread
+   */
+  public void setDecodeAhead(boolean decodeAhead) {
+    this.decodeAhead = decodeAhead;
+  }
+
+  /**
+   * Decompresses the blocks of each split on this many threads in parallel. Records are still read in file order.
+   * This is meant for heavily compressed files, where a single thread can't decompress as fast as the pipe consumes.
+   * It implies reading ahead by at least as many blocks as there are threads, see {@link #setReadAheadBlocks(int)}
+   * for a larger bound on the blocks held in memory.
+   *
+   * @param decompressionThreads the number of threads, 1 (the default) to decompress one block at a time
+   */
+  public void setDecompressionThreads(int decompressionThreads) {
+    if (decompressionThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least 1");
     }
+    this.decompressionThreads = decompressionThreads;
+  }
+
+  /**
+   * If true, source files on the local file system are memory mapped instead of read through file system streams.
+   * Blocks are then decoded straight from the mapping, without copying them to the heap first unless they need to be
+   * decompressed. This helps local mode jobs on large files; files on other file systems are read as usual.
+   *
+   * @param memoryMapped whether to memory map local files
+   */
+  public void setMemoryMapped(boolean memoryMapped) {
+    this.memoryMapped = memoryMapped;
+  }
+
+  /**
+   * Keeps up to this many bytes of block buffers for reuse, in a pool shared by all sources of the JVM (e.g. with
+   * local mode or JVM reuse). This saves allocating large arrays for every block of files written with a large sync
+   * interval. Pool hits and misses are reported as counters of the AvroBufferPool group.
+   *
+   * @param bufferPoolSize the number of bytes to keep, or 0 to allocate the buffers of every block (the default)
+   */
+  public void setBufferPoolSize(long bufferPoolSize) {
+    if (bufferPoolSize < 0) {
+      throw new IllegalArgumentException("Pool size must not be negative");
+    }
+    this.bufferPoolSize = bufferPoolSize;
+  }
+
+  /**
+   * Makes the source read only a sample of the records, by reading a fraction of the Avro blocks of each file and
+   * skipping the others without decompressing them. Whether a block is sampled only depends on the seed, the file
+   * and the position of the block, so the same seed gives the same sample in every run. As whole blocks are sampled,
+   * the sample is only as random as the order of the records within the files.
+   *
+   * @param fraction the fraction of blocks to read, between 0 and 1
+   * @param seed     the seed of the sample
+   */
+  public void setSample(double fraction, long seed) {
+    if (fraction < 0 || fraction > 1) {
+      throw new IllegalArgumentException("Fraction must be between 0 and 1");
+    }
+    this.sampleFraction = fraction;
+    this.sampleSeed = seed;
+  }
+
+  /**
+   * Stops reading each split after this many records, e.g. to preview data.
+   *
+   * @param maxRecordsPerSplit the number of records to read from each split, or 0 to read all of them (the default)
+   */
+  public void setMaxRecordsPerSplit(long maxRecordsPerSplit) {
+    if (maxRecordsPerSplit < 0) {
+      throw new IllegalArgumentException("Number of records must not be negative");
+    }
+    this.maxRecordsPerSplit = maxRecordsPerSplit;
+  }
+
+  /**
+   * If true, records that pass through a flow unchanged are copied from source to sink in their encoded form, instead
+   * of being converted to tuples and back. On the source, every tuple is backed by its record (as with
+   * {@link #setLazyTuples(boolean)}) and keeps the bytes the record was encoded as in the file; on the sink, a tuple
+   * that still has those bytes and whose schema equals the sink schema is written as those bytes. Tuples that were
+   * modified, rebuilt by an operation or went through a GroupBy are converted as usual. This needs to be set on both
+   * the source and the sink scheme, and only works for sources read with the schema of their files. The records
+   * written in their encoded form are counted in {@link Counters#RAW_PASSTHROUGH_RECORDS}. Flattened tuples, see
+   * {@link #setFlatten(boolean)}, are always converted.
+   *
+   * @param rawPassthrough whether to copy unchanged records in their encoded form
+   */
+  public void setRawPassthrough(boolean rawPassthrough) {
+    this.rawPassthrough = rawPassthrough;
   }
 
   /**
@@ -143,20 +272,80 @@ public class AvroScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
       SinkCall<Object[], OutputCollector> sinkCall)
       throws IOException {
     TupleEntry tupleEntry = sinkCall.getOutgoingEntry();
+    Object[] context = sinkCall.getContext();
+
+    if (context[0] == null) {
+      // no schema yet, hold on to the tuple until there are enough to infer one
+      @SuppressWarnings("unchecked") List<TupleEntry> sample = (List<TupleEntry>) context[1];
+      sample.add(new TupleEntry(tupleEntry.getFields(), new Tuple(tupleEntry.getTuple())));
+      if (sample.size() >= sinkSchemaSampleSize) {
+        writeSample(sinkCall);
+      }
+      return;
+    }
+    if (flatten) {
+      writeFlattened(tupleEntry, sinkCall.getOutput());
+      return;
+    }
+    if (rawPassthrough && writeEncoded(tupleEntry, context, sinkCall.getOutput())) {
+      flowProcess.increment(Counters.RAW_PASSTHROUGH_RECORDS, 1);
+      return;
+    }
+    write(tupleEntry, (Schema) context[0], sinkCall.getOutput());
+  }
 
-    IndexedRecord record = new Record((Schema) sinkCall.getContext()[0]);
-    Object[] objectArray = CascadingToAvro.parseTupleEntry(tupleEntry, (Schema) sinkCall.getContext()[0]);
-    for (int i = 0; i < objectArray.length; i++) {
-      record.put(i, objectArray[i]);
+  /**
+   * Writes an unchanged tuple of a passthrough source in its encoded form.
+   *
+   * @return boolean false if the tuple has to be converted instead.
+   */
+  private boolean writeEncoded(TupleEntry tupleEntry, Object[] context, OutputCollector output) throws IOException {
+    if (!(tupleEntry.getTuple() instanceof IndexedRecordTuple)) {
+      return false;
+    }
+    IndexedRecordTuple tuple = (IndexedRecordTuple) tupleEntry.getTuple();
+    byte[] encoded = tuple.getEncoded();
+    if (encoded == null) {
+      return false;
+    }
+    // the source schema last found to equal the sink schema, as comparing schemas is expensive
+    if (tuple.getSchema() != context[2]) {
+      if (!tuple.getSchema().equals(context[0])) {
+        return false;
+      }
+      context[2] = tuple.getSchema();
     }
     //noinspection unchecked
-    sinkCall.getOutput().collect(new AvroWrapper<IndexedRecord>(record), NullWritable.get());
+    output.collect(new RawAvroWrapper<IndexedRecord>(tuple.getRecord(), encoded), NullWritable.get());
+    return true;
+  }
 
+  /**
+   * Writes a record the sink has built, or a copy of it when it is only encoded later by the asynchronous writer.
+   */
+  @Override
+  void collect(IndexedRecord record, OutputCollector output) throws IOException {
+    super.collect(asyncSinkQueueSize > 0 ? QUEUE_COPIER.deepCopy(record.getSchema(), record) : record, output);
+  }
+
+  /**
+   * Infers the sink schema from the tuples held back so far, keeps it for the rest of the task and writes them.
+   */
+  private void writeSample(SinkCall<Object[], OutputCollector> sinkCall) throws IOException {
+    Object[] context = sinkCall.getContext();
+    @SuppressWarnings("unchecked") List<TupleEntry> sample = (List<TupleEntry>) context[1];
+    Schema inferred = CascadingToAvro.generateAvroSchemaFromTupleEntries(sample, DEFAULT_RECORD_NAME);
+    context[0] = inferred;
+    context[1] = null;
+    for (TupleEntry entry : sample) {
+      write(entry, inferred, sinkCall.getOutput());
+    }
   }
 
   /**
    * Sink prepare method called by cascading once on each reducer. This method stuffs the schema into a context
-   * for easy access by the sink method.
+   * for easy access by the sink method. Without a schema, the context also holds the tuples the schema will be
+   * inferred from.
    *
    * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
    * @param sinkCall    The cascading SinkCall object. Should be passed in by cascading automatically.
@@ -167,94 +356,61 @@ public class AvroScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
       FlowProcess<JobConf> flowProcess,
       SinkCall<Object[], OutputCollector> sinkCall)
       throws IOException {
-    sinkCall.setContext(new Object[]{schema});
+    sinkCall.setContext(new Object[]{schema, schema == null ? new ArrayList<TupleEntry>() : null, null});
 
   }
 
   /**
-   * sinkConfInit is called by cascading to set up the sinks. This happens on the client side before the
-   * job is distributed.
-   * There is a check for the presence of a schema and an exception is thrown if none has been provided.
-   * After the schema check the conf object is given the options that Avro needs.
+   * Sink cleanup method called by cascading once the last tuple has been written. Tuples that were held back to
+   * infer the schema from are written now if there were fewer of them than the sample size.
    *
    * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
-   * @param tap         The cascading Tap object. Should be passed in by cascading automatically.
-   * @param conf        The Hadoop JobConf object. This is passed in by cascading automatically.
-   * @throws RuntimeException If no schema is present this halts the entire process.
+   * @param sinkCall    The cascading SinkCall object. Should be passed in by cascading automatically.
+   * @throws IOException
    */
   @Override
-  public void sinkConfInit(
+  public void sinkCleanup(
       FlowProcess<JobConf> flowProcess,
-      Tap<JobConf, RecordReader, OutputCollector> tap,
-      JobConf conf) {
-
-    if (schema == null) {
-      throw new RuntimeException("Must provide sink schema");
+      SinkCall<Object[], OutputCollector> sinkCall)
+      throws IOException {
+    Object[] context = sinkCall.getContext();
+    if (context != null && context[1] != null && !((List<?>) context[1]).isEmpty()) {
+      writeSample(sinkCall);
     }
-    // Set the output schema and output format class
-    conf.set(AvroJob.OUTPUT_SCHEMA, schema.toString());
-    conf.setOutputFormat(AvroOutputFormat.class);
-
-
-    // add AvroSerialization to io.serializations
-    addAvroSerializations(conf);
   }
 
   /**
-   * This method is called by cascading to set up the incoming fields. If a schema isn't present then it will
-   * go and peek at the input data to retrieve one. The field names from the schema are used to name the cascading fields.
+   * sinkConfInit is called by cascading to set up the sinks. This happens on the client side before the
+   * job is distributed.
+   * If no schema has been provided, the output files are only created once the schema has been inferred from
+   * the first tuples of each task.
+   * After the schema check the conf object is given the options that Avro needs.
    *
    * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
    * @param tap         The cascading Tap object. Should be passed in by cascading automatically.
-   * @return Fields The source cascading fields.
+   * @param conf        The Hadoop JobConf object. This is passed in by cascading automatically.
    */
   @Override
-  public Fields retrieveSourceFields(FlowProcess<JobConf> flowProcess, Tap tap) {
+  public void sinkConfInit(
+      FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap,
+      JobConf conf) {
+    super.sinkConfInit(flowProcess, tap, conf);
     if (schema == null) {
-      try {
-        schema = getSourceSchema(flowProcess, tap);
-      } catch (IOException e) {
-        throw new RuntimeException("Can't get schema from data source");
-      }
-    }
-    Fields cascadingFields = new Fields();
-    if (schema.getType().equals(Schema.Type.NULL)) {
-      cascadingFields = Fields.NONE;
+      conf.setOutputFormat(DeferredAvroOutputFormat.class);
     } else {
-      for (Field avroField : schema.getFields())
-        cascadingFields = cascadingFields.append(new Fields(avroField.name()));
+      // Set the output schema and output format class
+      conf.set(AvroJob.OUTPUT_SCHEMA, schema.toString());
+      conf.setOutputFormat(AvroOutputFormat.class);
     }
-    setSourceFields(cascadingFields);
-    return getSourceFields();
-  }
-
-  /**
-   * Source method to take an incoming Avro record and make it a Tuple.
-   *
-   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
-   * @param sourceCall  The cascading SourceCall object. Should be passed in by cascading automatically.
-   * @return boolean true on successful parsing and collection, false on failure.
-   * @throws IOException
-   */
-  @Override
-  public boolean source(
-      FlowProcess<JobConf> flowProcess,
-      SourceCall<Object[], RecordReader> sourceCall)
-      throws IOException {
-
-    @SuppressWarnings("unchecked") RecordReader<AvroWrapper<IndexedRecord>, Writable> input = sourceCall.getInput();
-    AvroWrapper<IndexedRecord> wrapper = input.createKey();
-    if (!input.next(wrapper, input.createValue())) {
-      return false;
+    if (asyncSinkQueueSize > 0) {
+      conf.setInt(DeferredAvroOutputFormat.ASYNC_QUEUE_SIZE_KEY, asyncSinkQueueSize);
+      conf.setOutputFormat(DeferredAvroOutputFormat.class);
+    }
+    if (rawPassthrough) {
+      // writes encoded records as they are
+      conf.setOutputFormat(DeferredAvroOutputFormat.class);
     }
-    IndexedRecord record = wrapper.datum();
-    Tuple tuple = sourceCall.getIncomingEntry().getTuple();
-    tuple.clear();
-
-    Object[] split = AvroToCascading.parseRecord(record, schema);
-    tuple.addAll(split);
-
-    return true;
   }
 
   /**
@@ -274,75 +430,75 @@ public class AvroScheme extends Scheme<JobConf, RecordReader, OutputCollector, O
       Tap<JobConf, RecordReader, OutputCollector> tap,
       JobConf conf) {
 
-    retrieveSourceFields(flowProcess, tap);
-    // Set the input schema and input class
-    conf.set(AvroJob.INPUT_SCHEMA, schema.toString());
+    super.sourceConfInit(flowProcess, tap, conf);
     conf.setInputFormat(AvroInputFormat.class);
+    if (readAheadBlocks > 0 || decompressionThreads > 1 || memoryMapped || bufferPoolSize > 0
+        || sampleFraction < 1 || maxRecordsPerSplit > 0 || rawPassthrough) {
+      conf.setInt(AvroBlockInputFormat.READ_AHEAD_KEY, readAheadBlocks);
+      conf.setInt(AvroBlockInputFormat.DECOMPRESSION_THREADS_KEY, decompressionThreads);
+      conf.setBoolean(AvroBlockInputFormat.DECODE_AHEAD_KEY, decodeAhead);
+      conf.setBoolean(AvroBlockInputFormat.MEMORY_MAP_KEY, memoryMapped);
+      conf.setLong(AvroBlockInputFormat.BUFFER_POOL_SIZE_KEY, bufferPoolSize);
+      conf.set(AvroBlockInputFormat.SAMPLE_FRACTION_KEY, Double.toString(sampleFraction));
+      conf.setLong(AvroBlockInputFormat.SAMPLE_SEED_KEY, sampleSeed);
+      conf.setLong(AvroBlockInputFormat.SAMPLE_MAX_RECORDS_KEY, maxRecordsPerSplit);
+      conf.setBoolean(AvroBlockInputFormat.RAW_RECORDS_KEY, rawPassthrough);
+      conf.setInputFormat(AvroBlockInputFormat.class);
+    }
+  }
 
-    // add AvroSerialization to io.serializations
-    addAvroSerializations(conf);
+  @Override
+  boolean isSourcingRecordTuples() {
+    return super.isSourcingRecordTuples() || rawPassthrough;
   }
 
   /**
-   * This method peeks at the source data to get a schema when none has been provided.
+   * Reads the schema from the header of a data file, when peeking at the source data.
    *
-   * @param flowProcess The cascading FlowProcess object for this flow.
-   * @param tap         The cascading Tap object.
-   * @return Schema The schema of the peeked at data, or Schema.NULL if none exists.
+   * @param fs   The file system the file is on.
+   * @param path The file to read.
+   * @return Schema The schema of the file, or null if it isn't a data file this scheme can read.
+   * @throws IOException
    */
-  private Schema getSourceSchema(FlowProcess<JobConf> flowProcess, Tap tap) throws IOException {
-
-    if (tap instanceof CompositeTap) {
-      tap = (Tap) ((CompositeTap) tap).getChildTaps().next();
-    }
-    final String path = tap.getIdentifier();
-    Path p = new Path(path);
-    final FileSystem fs = p.getFileSystem(flowProcess.getConfigCopy());
-    // Get all the input dirs
-    List<FileStatus> statuses = new LinkedList<FileStatus>(Arrays.asList(fs.globStatus(p, filter)));
-    // Now get all the things that are one level down
-    for (FileStatus status : new LinkedList<FileStatus>(statuses)) {
-      if (status.isDir())
-        for (FileStatus child : Arrays.asList(fs.listStatus(status.getPath(), filter))) {
-          if (child.isDir()) {
-            statuses.addAll(Arrays.asList(fs.listStatus(child.getPath(), filter)));
-          } else if (fs.isFile(child.getPath())) {
-            statuses.add(child);
-          }
-        }
-    }
-    for (FileStatus status : statuses) {
-      Path statusPath = status.getPath();
-      if (fs.isFile(statusPath)) {
-        // no need to open them all
-        InputStream stream = new BufferedInputStream(fs.open(statusPath));
-        @SuppressWarnings("unchecked") DataFileStream reader = new DataFileStream(stream, new GenericDatumReader());
-        return reader.getSchema();
-      }
-    }
-    // couldn't find any Avro files, return null schema
-    return Schema.create(Schema.Type.NULL);
-  }
-
-  private void addAvroSerializations(JobConf conf) {
-    Collection<String> serializations = conf.getStringCollection("io.serializations");
-    if (!serializations.contains(AvroSerialization.class.getName())) {
-      serializations.add(AvroSerialization.class.getName());
-      serializations.add(AvroSpecificRecordSerialization.class.getName());
+  @Override
+  protected Schema readFileSchema(FileSystem fs, Path path) throws IOException {
+    InputStream stream = new BufferedInputStream(fs.open(path));
+    @SuppressWarnings("unchecked") DataFileStream reader = new DataFileStream(stream, new GenericDatumReader());
+    try {
+      return reader.getSchema();
+    } finally {
+      reader.close();
     }
-
-
-    conf.setStrings("io.serializations", serializations.toArray(new String[serializations.size()]));
   }
 
   private void writeObject(java.io.ObjectOutputStream out)
       throws IOException {
-    out.writeUTF(this.schema.toString());
+    out.writeInt(this.sinkSchemaSampleSize);
+    out.writeInt(this.asyncSinkQueueSize);
+    out.writeInt(this.readAheadBlocks);
+    out.writeBoolean(this.decodeAhead);
+    out.writeInt(this.decompressionThreads);
+    out.writeBoolean(this.memoryMapped);
+    out.writeLong(this.bufferPoolSize);
+    out.writeDouble(this.sampleFraction);
+    out.writeLong(this.sampleSeed);
+    out.writeLong(this.maxRecordsPerSplit);
+    out.writeBoolean(this.rawPassthrough);
   }
 
   private void readObject(java.io.ObjectInputStream in)
-      throws IOException {
-    this.schema = readSchema(in);
+      throws IOException, ClassNotFoundException {
+    this.sinkSchemaSampleSize = in.readInt();
+    this.asyncSinkQueueSize = in.readInt();
+    this.readAheadBlocks = in.readInt();
+    this.decodeAhead = in.readBoolean();
+    this.decompressionThreads = in.readInt();
+    this.memoryMapped = in.readBoolean();
+    this.bufferPoolSize = in.readLong();
+    this.sampleFraction = in.readDouble();
+    this.sampleSeed = in.readLong();
+    this.maxRecordsPerSplit = in.readLong();
+    this.rawPassthrough = in.readBoolean();
   }
 }
 
@@ -14,6 +14,7 @@
 
 package cascading.avro;
 
+import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -22,11 +23,10 @@ import java.util.Map;
 
 import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Schema;
-import org.apache.avro.Schema.Field;
-import org.apache.avro.Schema.Type;
 import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericData.Fixed;
 import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericData.StringType;
+import org.apache.avro.generic.GenericFixed;
 import org.apache.avro.generic.IndexedRecord;
 import org.apache.avro.util.Utf8;
 import org.apache.hadoop.io.BytesWritable;
@@ -35,52 +35,159 @@ import cascading.tuple.Tuple;
 
 public class AvroToCascading {
 
+    private static final Options DEFAULT_OPTIONS = new Options();
+
+    /**
+     * The Java representation of Avro bytes and fixed values.
+     */
+    public static enum BytesType {
+        BytesWritable, ByteBuffer
+    }
+
+    /**
+     * Options controlling how Avro data is represented once converted to Cascading. The defaults produce plain Java
+     * objects: Strings, BytesWritables, Lists, Maps and Tuples.
+     */
+    public static class Options implements Serializable {
+        private boolean lazyCollections = false;
+        private boolean lazyTuples = false;
+        private StringType stringType = StringType.String;
+        private BytesType bytesType = BytesType.BytesWritable;
+
+        public boolean isLazyCollections() {
+            return lazyCollections;
+        }
+
+        /**
+         * When set, Avro maps and arrays are returned as read-only views that convert their elements on first access
+         * and cache the result, instead of being copied into a new HashMap or ArrayList up front.
+         *
+         * @param lazyCollections true to return lazy views
+         */
+        public void setLazyCollections(boolean lazyCollections) {
+            this.lazyCollections = lazyCollections;
+        }
+
+        public boolean isLazyTuples() {
+            return lazyTuples;
+        }
+
+        /**
+         * When set, records are sourced as Tuples backed by the Avro record, which convert each field the first time
+         * it is read.
+         *
+         * @param lazyTuples true to source lazily converted Tuples
+         */
+        public void setLazyTuples(boolean lazyTuples) {
+            this.lazyTuples = lazyTuples;
+        }
+
+        public StringType getStringType() {
+            return stringType;
+        }
+
+        /**
+         * Selects how Avro strings are represented. {@link StringType#String} (the default) decodes every string into
+         * a java.lang.String. {@link StringType#Utf8} and {@link StringType#CharSequence} hand out the decoded Utf8
+         * as is, which avoids decoding and copying the characters when the value is only passed on to an Avro sink.
+         *
+         * @param stringType the representation for string values
+         */
+        public void setStringType(StringType stringType) {
+            this.stringType = stringType;
+        }
+
+        public BytesType getBytesType() {
+            return bytesType;
+        }
+
+        /**
+         * Selects how Avro bytes and fixed values are represented. {@link BytesType#BytesWritable} (the default) wraps
+         * the decoded bytes without copying whenever they start at the beginning of their buffer. With
+         * {@link BytesType#ByteBuffer} a slice of the decoded buffer is handed out, which never copies.
+         *
+         * @param bytesType the representation for bytes and fixed values
+         */
+        public void setBytesType(BytesType bytesType) {
+            this.bytesType = bytesType;
+        }
+    }
+
     public static Object[] parseRecord(IndexedRecord record, Schema readerSchema) {
+        return parseRecord(record, readerSchema, DEFAULT_OPTIONS);
+    }
+
+    /**
+     * Converts a record to the fields of the reader schema. The record may have been written with a different version
+     * of the schema: fields are then matched by name or alias, missing fields take the default of the reader schema
+     * and numbers are widened as Avro schema resolution allows.
+     *
+     * @param record       The record to convert.
+     * @param readerSchema The schema describing the fields to return.
+     * @param options      The conversion options.
+     * @return Object[] The converted values, in the order of the reader schema.
+     * @throws AvroRuntimeException if a reader field is neither in the record nor has a default.
+     */
+    public static Object[] parseRecord(IndexedRecord record, Schema readerSchema, Options options) {
 
         Object[] result = new Object[readerSchema.getFields().size()];
-        Schema writerSchema = record.getSchema();
-        List<Field> schemaFields = readerSchema.getFields();
-        for (int i = 0; i < schemaFields.size(); i++) {
-            Field field = schemaFields.get(i);
-            if (writerSchema.getField(field.name()) == null) {
-                throw new AvroRuntimeException("Not a valid schema field: " + field.name());
+        if (record.getSchema() == readerSchema) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = fromAvro(record.get(i), readerSchema.getFields().get(i).schema(), options);
             }
-            Object obj = record.get(i);
-            result[i] = fromAvro(obj, field.schema());
-
+            return result;
+        }
+        RecordResolver resolver = RecordResolver.forSchemas(record.getSchema(), readerSchema);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = resolver.read(record, i, options);
         }
         return result;
     }
 
+    /**
+     * Converts a single field of a record, as named by its position in the reader schema.
+     */
+    static Object fromAvroField(IndexedRecord record, Schema readerSchema, int index, Options options) {
+        if (record.getSchema() == readerSchema) {
+            return fromAvro(record.get(index), readerSchema.getFields().get(index).schema(), options);
+        }
+        return RecordResolver.forSchemas(record.getSchema(), readerSchema).read(record, index, options);
+    }
+
     protected static Object fromAvro(Object obj, Schema schema) {
+        return fromAvro(obj, schema, DEFAULT_OPTIONS);
+    }
+
+    protected static Object fromAvro(Object obj, Schema schema, Options options) {
     	if (obj == null) {
     		return null;
     	}
         switch (schema.getType()) {
 
             case UNION:
-                return fromAvroUnion(obj, schema);
+                return fromAvroUnion(obj, schema, options);
 
             case ARRAY:
-                return fromAvroArray(obj, schema);
+                return fromAvroArray(obj, schema, options);
 
             case STRING:
+                return options.getStringType() == StringType.String ? obj.toString() : obj;
             case ENUM:
                 return obj.toString();
 
             case FIXED:
-                return fromAvroFixed(obj, schema);
+                return fromAvroFixed(obj, schema, options);
             case BYTES:
-                return fromAvroBytes((ByteBuffer) obj);
+                return fromAvroBytes((ByteBuffer) obj, options);
 
             case RECORD:
-                Object[] objs = parseRecord((IndexedRecord) obj, schema);
+                Object[] objs = parseRecord((IndexedRecord) obj, schema, options);
                 Tuple result = new Tuple();
                 result.addAll(objs);
                 return result;
 
             case MAP:
-                return fromAvroMap(obj, schema);
+                return fromAvroMap(obj, schema, options);
 
             case NULL:
             case BOOLEAN:
@@ -96,49 +203,79 @@ public class AvroToCascading {
         }
     }
 
-    protected static Object fromAvroFixed(Object obj, Schema schema) {
-        Fixed fixed = (Fixed) obj;
-        return new BytesWritable(fixed.bytes());
+    /**
+     * Returns true if {@link #fromAvro(Object, Schema, Options)} returns values of this schema unchanged.
+     */
+    static boolean isPassThrough(Schema schema) {
+        switch (schema.getType()) {
+            case NULL:
+            case BOOLEAN:
+            case DOUBLE:
+            case FLOAT:
+            case INT:
+            case LONG:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    protected static Object fromAvroFixed(Object obj, Schema schema, Options options) {
+        byte[] bytes = ((GenericFixed) obj).bytes();
+        if (options.getBytesType() == BytesType.ByteBuffer) {
+            return ByteBuffer.wrap(bytes);
+        }
+        return new BytesWritable(bytes);
     }
 
     @SuppressWarnings("unchecked")
-    protected static Object fromAvroMap(Object obj, Schema schema) {
+    protected static Object fromAvroMap(Object obj, Schema schema, Options options) {
+        if (options.isLazyCollections()) {
+            return new AvroMapView((Map<Object, Object>) obj, schema.getValueType(), options);
+        }
 
         Map<String, Object> convertedMap = new HashMap<String, Object>();
         for (Map.Entry<Utf8, Object> e : ((Map<Utf8, Object>) obj).entrySet()) {
-            convertedMap.put(e.getKey().toString(), fromAvro(e.getValue(), schema.getValueType()));
+            convertedMap.put(e.getKey().toString(), fromAvro(e.getValue(), schema.getValueType(), options));
         }
         return convertedMap;
     }
 
     protected static BytesWritable fromAvroBytes(ByteBuffer val) {
-        BytesWritable result = new BytesWritable(val.array());
-        return result;
+        int length = val.remaining();
+        if (val.hasArray() && val.arrayOffset() + val.position() == 0) {
+            // BytesWritable can't start at an offset, but it can wrap the front of an array
+            BytesWritable result = new BytesWritable(val.array());
+            result.setSize(length);
+            return result;
+        }
+        byte[] copy = new byte[length];
+        val.duplicate().get(copy);
+        return new BytesWritable(copy);
     }
 
-    protected static Object fromAvroArray(Object obj, Schema schema) {
+    protected static Object fromAvroBytes(ByteBuffer val, Options options) {
+        if (options.getBytesType() == BytesType.ByteBuffer) {
+            return val.slice();
+        }
+        return fromAvroBytes(val);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Object fromAvroArray(Object obj, Schema schema, Options options) {
+        if (options.isLazyCollections() && obj instanceof List) {
+            return new AvroListView((List<Object>) obj, schema.getElementType(), options);
+        }
+
         List<Object> array = new ArrayList<Object>();
         for (Object element : (GenericData.Array) obj) {
-            array.add(fromAvro(element, schema.getElementType()));
+            array.add(fromAvro(element, schema.getElementType(), options));
         }
         return array;
     }
 
-    protected static Object fromAvroUnion(Object obj, Schema schema) {
-        List<Schema> types = schema.getTypes();
-        if (types.size() < 1) {
-            throw new AvroRuntimeException("Union has no types");
-        }
-        if (types.size() == 1) {
-            return fromAvro(obj, types.get(0));
-        } else if (types.size() > 2) {
-            throw new AvroRuntimeException("Unions may only consist of a concrete type and null in cascading.avro");
-        } else if (!types.get(0).getType().equals(Type.NULL) && !types.get(1).getType().equals(Type.NULL)) {
-            throw new AvroRuntimeException("Unions may only consist of a concrete type and null in cascading.avro");
-        } else {
-            Integer concreteIndex = (types.get(0).getType() == Type.NULL) ? 1 : 0;
-            return fromAvro(obj, types.get(concreteIndex));
-        }
+    protected static Object fromAvroUnion(Object obj, Schema schema, Options options) {
+        return fromAvro(obj, UnionResolver.forSchema(schema).resolve(obj), options);
     }
 
 }
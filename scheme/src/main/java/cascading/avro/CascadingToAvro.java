@@ -16,6 +16,7 @@ package cascading.avro;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -29,6 +30,7 @@ import org.apache.avro.Schema.Type;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericData.Fixed;
 import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.util.Utf8;
 import org.apache.hadoop.io.BytesWritable;
 
 import cascading.tuple.Fields;
@@ -46,6 +48,7 @@ public class CascadingToAvro {
             put(Double.class, Schema.Type.DOUBLE);
             put(Float.class, Schema.Type.FLOAT);
             put(String.class, Schema.Type.STRING);
+            put(Utf8.class, Schema.Type.STRING);
             put(BytesWritable.class, Schema.Type.BYTES);
 
             // Note : Cascading field type for Array and Map is really a Tuple
@@ -55,6 +58,9 @@ public class CascadingToAvro {
         }
     };
 
+    private static final List<Schema.Type> NUMERIC_TYPES = Arrays.asList(Schema.Type.INT, Schema.Type.LONG,
+            Schema.Type.FLOAT, Schema.Type.DOUBLE);
+
     public static Object[] parseTupleEntry(TupleEntry tupleEntry, Schema writerSchema) {
         if (!(writerSchema.getFields().size() == tupleEntry.size())) {
             throw new AvroRuntimeException("Arity mismatch between incoming tuple and schema");
@@ -89,7 +95,8 @@ public class CascadingToAvro {
                 return toAvroArray(obj, schema);
 
             case STRING:
-                return obj.toString();
+                // Avro writes any CharSequence, so Utf8 values pass through without being decoded
+                return obj instanceof CharSequence ? obj : obj.toString();
             case ENUM:
                 return toAvroEnum(obj, schema);
 
@@ -119,12 +126,17 @@ public class CascadingToAvro {
             case UNION:
                 return toAvroUnion(obj, schema);
 
+            case LONG:
+                // a union may hold a narrower number in a wider branch
+                return obj instanceof Number && !(obj instanceof Long) ? toAvroLong((Number) obj) : obj;
+            case FLOAT:
+                return obj instanceof Number && !(obj instanceof Float) ? ((Number) obj).floatValue() : obj;
+            case DOUBLE:
+                return obj instanceof Number && !(obj instanceof Double) ? ((Number) obj).doubleValue() : obj;
+
             case NULL:
             case BOOLEAN:
-            case DOUBLE:
-            case FLOAT:
             case INT:
-            case LONG:
                 return obj;
 
             default:
@@ -133,14 +145,46 @@ public class CascadingToAvro {
         }
     }
 
+    protected static Object toAvroLong(Number obj) {
+        if (!UnionResolver.isLong(obj)) {
+            throw new AvroRuntimeException("Can't convert " + obj + " to a long without losing precision");
+        }
+        return obj.longValue();
+    }
+
     protected static Object toAvroEnum(Object obj, Schema schema) {
         return new GenericData.EnumSymbol(schema, obj.toString());
     }
 
     protected static Object toAvroFixed(Object obj, Schema schema) {
-        BytesWritable bytes = (BytesWritable) obj;
-        Fixed fixed = new Fixed(schema, bytes.getBytes());
-        return fixed;
+        byte[] bytes;
+        int length;
+        if (obj instanceof BytesWritable) {
+            bytes = ((BytesWritable) obj).getBytes();
+            length = ((BytesWritable) obj).getLength();
+        } else if (obj instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) obj;
+            length = buffer.remaining();
+            if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0) {
+                bytes = buffer.array();
+            } else {
+                bytes = new byte[length];
+                buffer.duplicate().get(bytes);
+            }
+        } else {
+            bytes = (byte[]) obj;
+            length = bytes.length;
+        }
+
+        if (length != schema.getFixedSize()) {
+            throw new AvroRuntimeException(String.format("Found %d bytes for fixed %s of size %d", length,
+                    schema.getFullName(), schema.getFixedSize()));
+        }
+        // the backing array may be longer than the value, e.g. a BytesWritable's spare capacity
+        if (bytes.length != length) {
+            bytes = Arrays.copyOf(bytes, length);
+        }
+        return new Fixed(schema, bytes);
     }
 
     @SuppressWarnings("unchecked")
@@ -152,7 +196,7 @@ public class CascadingToAvro {
             Tuple tuple = (Tuple) obj;
             if (tuple.size() % 2 == 0) {
                 for (int i = 0; i < tuple.size(); i = i + 2) {
-                    if (tuple.getObject(i).getClass() != String.class) {
+                    if (!(tuple.getObject(i) instanceof CharSequence)) {
                         throw new AvroRuntimeException(
                                 "Invalid map definition - the key should be a String - instead of "
                                         + tuple.getObject(i).getClass());
@@ -176,9 +220,14 @@ public class CascadingToAvro {
     }
 
     protected static Object toAvroBytes(Object obj) {
+        if (obj instanceof ByteBuffer) {
+            return obj;
+        } else if (obj instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) obj);
+        }
+        // only the first getLength() bytes are the value, the rest of the array is spare capacity
         BytesWritable inBytes = (BytesWritable) obj;
-        ByteBuffer buffer = ByteBuffer.wrap(inBytes.getBytes());
-        return buffer;
+        return ByteBuffer.wrap(inBytes.getBytes(), 0, inBytes.getLength());
     }
 
     protected static Object toAvroArray(Object obj, Schema schema) {
@@ -199,19 +248,7 @@ public class CascadingToAvro {
             return obj;
         }
 
-        List<Schema> types = schema.getTypes();
-        if (types.size() < 1) {
-            throw new AvroRuntimeException("Union in writer schema has no types");
-        } else if (types.size() == 1) {
-            return toAvro(obj, types.get(0));
-        } else if (types.size() > 2) {
-            throw new AvroRuntimeException("Unions may only consist of a concrete type and null in cascading.avro");
-        } else if (!types.get(0).getType().equals(Type.NULL) && !types.get(1).getType().equals(Type.NULL)) {
-            throw new AvroRuntimeException("Unions may only consist of a concrete type and null in cascading.avro");
-        } else {
-            Integer concreteIndex = (types.get(0).getType() == Type.NULL) ? 1 : 0;
-            return toAvro(obj, types.get(concreteIndex));
-        }
+        return toAvro(obj, UnionResolver.forSchema(schema).resolve(obj));
     }
 
     @SuppressWarnings("rawtypes")
@@ -233,6 +270,90 @@ public class CascadingToAvro {
         return outputSchema;
     }
 
+    /**
+     * Infers a record schema that can hold all of the given tuple entries. The type of each field is worked out from
+     * every entry, with numbers widened as needed (int to long to float to double) and nested records, arrays and
+     * maps merged. Top level fields are always nullable, since a sample can't prove a field is never null. A field
+     * that is null or empty in every entry is written as a string.
+     *
+     * @param entries    The sample of entries, all with the same fields.
+     * @param recordName The name of the record schema.
+     * @return Schema The inferred schema.
+     * @throws AvroRuntimeException if the entries hold incompatible types for a field.
+     */
+    @SuppressWarnings("rawtypes")
+    public static Schema generateAvroSchemaFromTupleEntries(List<TupleEntry> entries, String recordName) {
+        if (entries.isEmpty()) {
+            throw new AvroRuntimeException("Can't infer schema without any tuple entries");
+        }
+        List<Field> avroFields = new ArrayList<Field>();
+        for (Comparable fieldName : entries.get(0).getFields()) {
+            if (!(fieldName instanceof String)) {
+                throw new AvroRuntimeException("Can't generate schema from non-string named fields");
+            }
+            String name = (String) fieldName;
+            Schema fieldSchema = null;
+            for (TupleEntry entry : entries) {
+                Object element = entry.getObject(name);
+                if (isEmptyElement(element)) {
+                    continue;
+                }
+                Schema elementSchema = generateAvroSchemaFromElement(element, name, false);
+                fieldSchema = fieldSchema == null ? elementSchema : widenSchema(fieldSchema, elementSchema, name);
+            }
+            if (fieldSchema == null) {
+                fieldSchema = Schema.create(Schema.Type.STRING);
+            }
+            List<Schema> types = new ArrayList<Schema>();
+            types.add(Schema.create(Schema.Type.NULL));
+            types.add(fieldSchema);
+            avroFields.add(new Field(name, Schema.createUnion(types), null, null));
+        }
+
+        Schema outputSchema = Schema.createRecord(recordName, "auto-generated by cascading.avro", null, false);
+        outputSchema.setFields(avroFields);
+        return outputSchema;
+    }
+
+    private static boolean isEmptyElement(Object element) {
+        return element == null
+                || (element instanceof Map && ((Map) element).isEmpty())
+                || (element instanceof Iterable && !((Iterable) element).iterator().hasNext());
+    }
+
+    /**
+     * Returns a schema that can hold the values of both schemas, which were inferred for the same field.
+     */
+    private static Schema widenSchema(Schema first, Schema second, String name) {
+        if (first.equals(second)) {
+            return first;
+        }
+        Schema.Type firstType = first.getType();
+        Schema.Type secondType = second.getType();
+        if (NUMERIC_TYPES.contains(firstType) && NUMERIC_TYPES.contains(secondType)) {
+            return NUMERIC_TYPES.indexOf(firstType) > NUMERIC_TYPES.indexOf(secondType) ? first : second;
+        } else if (firstType == Schema.Type.ARRAY && secondType == Schema.Type.ARRAY) {
+            return Schema.createArray(widenSchema(first.getElementType(), second.getElementType(), name));
+        } else if (firstType == Schema.Type.MAP && secondType == Schema.Type.MAP) {
+            return Schema.createMap(widenSchema(first.getValueType(), second.getValueType(), name));
+        } else if (firstType == Schema.Type.RECORD && secondType == Schema.Type.RECORD
+                && first.getFields().size() == second.getFields().size()) {
+            List<Field> fields = new ArrayList<Field>();
+            for (Field field : first.getFields()) {
+                Field other = second.getField(field.name());
+                if (other == null) {
+                    throw new AvroRuntimeException("Can't merge records with different fields for " + name);
+                }
+                fields.add(new Field(field.name(), widenSchema(field.schema(), other.schema(), field.name()), null,
+                        null));
+            }
+            Schema record = Schema.createRecord(first.getName(), first.getDoc(), first.getNamespace(), false);
+            record.setFields(fields);
+            return record;
+        }
+        throw new AvroRuntimeException("Can't merge inferred types " + first + " and " + second + " for " + name);
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     protected static Schema generateAvroSchemaFromElement(Object element, String name, boolean isNullable) {
         if (element == null) {
@@ -245,9 +366,9 @@ public class CascadingToAvro {
             return generateAvroSchemaFromMap((Map<String, Object>) element, name);
         else if (element instanceof Iterable)
             return generateAvroSchemaFromIterable((Iterable) element, name);
-        else if (element instanceof BytesWritable)
+        else if (element instanceof BytesWritable || element instanceof ByteBuffer)
             return Schema.create(Schema.Type.BYTES);
-        else if (element instanceof String)
+        else if (element instanceof CharSequence)
             return Schema.create(Schema.Type.STRING);
         else if (element instanceof Double)
             return Schema.create(Schema.Type.DOUBLE);
@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cascading.avro;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.IndexedRecord;
+
+import cascading.tuple.Tuple;
+
+/**
+ * Tuple whose elements are backed by an Avro record. A field is converted to its Cascading representation the first
+ * time it is read and the result is cached, so operations that only look at a few fields of a wide record only pay
+ * for those. Nested records are converted to plain Tuples when their field is read, which keeps them serializable
+ * by Hadoop. The tuple behaves like any other Tuple when it is modified.
+ */
+class IndexedRecordTuple extends Tuple {
+
+    private byte[] encoded;
+
+    IndexedRecordTuple(Schema readerSchema, AvroToCascading.Options options) {
+        super(new RecordElements(readerSchema, options));
+    }
+
+    /**
+     * Points this tuple at the next record, dropping all converted values and modifications.
+     *
+     * @param record The record backing the tuple.
+     */
+    void reset(IndexedRecord record) {
+        reset(record, null);
+    }
+
+    /**
+     * Points this tuple at the next record, keeping the record's encoded form for as long as the tuple is unchanged.
+     *
+     * @param record  The record backing the tuple.
+     * @param encoded The record in Avro's binary encoding, or null.
+     */
+    void reset(IndexedRecord record, byte[] encoded) {
+        ((RecordElements) elements).reset(record);
+        this.encoded = encoded;
+    }
+
+    IndexedRecord getRecord() {
+        return ((RecordElements) elements).record;
+    }
+
+    Schema getSchema() {
+        return ((RecordElements) elements).readerSchema;
+    }
+
+    /**
+     * Returns the encoded form of the record, or null if there is none or the tuple was modified since it was reset.
+     *
+     * @return byte[] The record in Avro's binary encoding.
+     */
+    byte[] getEncoded() {
+        return ((RecordElements) elements).modified ? null : encoded;
+    }
+
+    private Object writeReplace() {
+        return new Tuple(this);
+    }
+
+    private static class RecordElements extends AbstractList<Object> implements RandomAccess {
+        private static final Object UNCONVERTED = new Object();
+
+        private final Schema readerSchema;
+        private final AvroToCascading.Options options;
+        private final Object[] values;
+        private IndexedRecord record;
+        private Schema lastSchema;
+        private boolean lastSchemaEqual;
+        private List<Object> materialized;
+        private boolean modified;
+
+        RecordElements(Schema readerSchema, AvroToCascading.Options options) {
+            this.readerSchema = readerSchema;
+            this.options = options;
+            this.values = new Object[readerSchema.getFields().size()];
+            Arrays.fill(values, UNCONVERTED);
+        }
+
+        void reset(IndexedRecord record) {
+            this.record = record;
+            if (record.getSchema() != lastSchema) {
+                // records decoded with the reader schema carry an equal instance of it, which converts by position
+                lastSchemaEqual = record.getSchema().equals(readerSchema);
+                lastSchema = record.getSchema();
+            }
+            this.materialized = null;
+            this.modified = false;
+            Arrays.fill(values, UNCONVERTED);
+        }
+
+        @Override
+        public Object get(int index) {
+            if (materialized != null) {
+                return materialized.get(index);
+            }
+            Object value = values[index];
+            if (value == UNCONVERTED) {
+                value = AvroToCascading.fromAvroField(record, lastSchemaEqual ? lastSchema : readerSchema, index,
+                        options);
+                values[index] = value;
+            }
+            return value;
+        }
+
+        @Override
+        public Object set(int index, Object element) {
+            modified = true;
+            if (materialized != null) {
+                return materialized.set(index, element);
+            }
+            Object previous = get(index);
+            values[index] = element;
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Object element) {
+            materialize().add(index, element);
+        }
+
+        @Override
+        public Object remove(int index) {
+            return materialize().remove(index);
+        }
+
+        @Override
+        public void clear() {
+            modified = true;
+            materialized = new ArrayList<Object>();
+        }
+
+        @Override
+        public int size() {
+            return materialized != null ? materialized.size() : values.length;
+        }
+
+        /**
+         * Structural changes convert the remaining fields and continue on a plain list.
+         */
+        private List<Object> materialize() {
+            modified = true;
+            if (materialized == null) {
+                List<Object> list = new ArrayList<Object>(values.length + 1);
+                for (int i = 0; i < values.length; i++) {
+                    list.add(get(i));
+                }
+                materialized = list;
+            }
+            return materialized;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package cascading.avro;
 
+import cascading.avro.mapred.AvroBlockInputFormat;
+import cascading.avro.mapred.DeferredAvroOutputFormat;
 import cascading.flow.FlowProcess;
 import cascading.scheme.SinkCall;
 import cascading.scheme.SourceCall;
@@ -8,7 +10,11 @@ import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericContainer;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.mapred.AvroWrapper;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.JobConf;
@@ -25,8 +31,11 @@ public class PackedAvroScheme<T> extends AvroScheme {
    */
 
 
+  private final Class<T> recordClass;
+  private boolean reuseRecords = false;
+
   public PackedAvroScheme() {
-    this(null);
+    this((Schema) null);
   }
 
   /**
@@ -36,13 +45,102 @@ public class PackedAvroScheme<T> extends AvroScheme {
    */
   public PackedAvroScheme(Schema schema) {
     this.schema = schema;
+    this.recordClass = null;
 //    if (schema == null) {
     setSinkFields(Fields.FIRST);
     setSourceFields(Fields.FIRST);
   }
 
+  /**
+   * Constructs a scheme for a specific record class generated by Avro. The schema is taken from the class, records are
+   * read with a SpecificDatumReader straight into instances of the class, and written with a SpecificDatumWriter.
+   *
+   * @param recordClass The class of the records, which must implement SpecificRecord.
+   */
+  public PackedAvroScheme(Class<T> recordClass) {
+    if (!SpecificRecord.class.isAssignableFrom(recordClass)) {
+      throw new IllegalArgumentException(recordClass.getName() + " is not a specific record class");
+    }
+    this.schema = SpecificData.get().getSchema(recordClass);
+    this.recordClass = recordClass;
+    setSinkFields(Fields.FIRST);
+    setSourceFields(Fields.FIRST);
+  }
+
+  /**
+   * If true, the source decodes every record into the same object instead of creating a new one per record, which
+   * saves most of the allocations of reading. The record in the incoming tuple is then only valid until the next
+   * record is read: operations that hold on to records beyond the call they got them in, e.g. Buffers that collect
+   * values, AggregateBy caches or the accumulated side of a HashJoin, must keep a copy made with
+   * {@link #deepCopy(GenericContainer)}. Records that only pass through filters and functions to a sink, or that go
+   * through a GroupBy (where they are serialized), need no copy. A PackedAvroScheme sink with an asynchronous writer
+   * (see {@link #setAsyncSinkQueueSize(int)}) copies the records it queues for this reason. Other sinks that keep
+   * records after they were collected must be given copies. Reuse has no effect when records are decoded ahead, see
+   * {@link #setDecodeAhead(boolean)}.
+   *
+   * @param reuseRecords whether to decode all records into one object
+   */
+  public void setReuseRecords(boolean reuseRecords) {
+    this.reuseRecords = reuseRecords;
+  }
+
+  /**
+   * Returns a deep copy of a record read by a scheme that reuses records, see {@link #setReuseRecords(boolean)}.
+   * Specific records are copied into instances of their class, generic records into generic records.
+   *
+   * @param record The record to copy.
+   * @return R The copy, which shares nothing with the record.
+   */
+  public static <R extends GenericContainer> R deepCopy(R record) {
+    if (record instanceof SpecificRecord) {
+      return SpecificData.get().deepCopy(record.getSchema(), record);
+    }
+    return GenericData.get().deepCopy(record.getSchema(), record);
+  }
+
+  /**
+   * Sets up the source like AvroScheme does. With a record class, the block input format is used, which reads the
+   * records with a SpecificDatumReader for that class.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param tap         The cascading Tap object. Should be passed in by cascading automatically.
+   * @param conf        The Hadoop JobConf object. This is passed in by cascading automatically.
+   */
+  @Override
+  public void sourceConfInit(
+      FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap,
+      JobConf conf) {
+    super.sourceConfInit(flowProcess, tap, conf);
+    if (recordClass != null) {
+      conf.set(AvroBlockInputFormat.RECORD_CLASS_KEY, recordClass.getName());
+      conf.setInputFormat(AvroBlockInputFormat.class);
+    }
+  }
+
+  /**
+   * Sets up the sink like AvroScheme does. With a record class, records are written with a SpecificDatumWriter.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param tap         The cascading Tap object. Should be passed in by cascading automatically.
+   * @param conf        The Hadoop JobConf object. This is passed in by cascading automatically.
+   */
+  @Override
+  public void sinkConfInit(
+      FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap,
+      JobConf conf) {
+    super.sinkConfInit(flowProcess, tap, conf);
+    if (recordClass != null) {
+      // writes with the output schema set by AvroScheme
+      conf.setOutputFormat(DeferredAvroOutputFormat.class);
+    }
+  }
+
   /**
    * Sink method to take an outgoing tuple and write it to Avro. In this scheme the incoming avro is passed through.
+   * With an asynchronous writer, a deep copy of the record is queued instead, as the record is only encoded later,
+   * when a source that reuses records may already have read the next one into it.
    *
    * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
    * @param sinkCall    The cascading SinkCall object. Should be passed in by cascading automatically.
@@ -51,8 +149,13 @@ public class PackedAvroScheme<T> extends AvroScheme {
   @Override
   public void sink(FlowProcess<JobConf> flowProcess, SinkCall<Object[], OutputCollector> sinkCall) throws IOException {
     TupleEntry tupleEntry = sinkCall.getOutgoingEntry();
+    @SuppressWarnings("unchecked") T record = (T) tupleEntry.getObject(Fields.FIRST);
+    if (asyncSinkQueueSize > 0 && record instanceof GenericContainer) {
+      //noinspection unchecked
+      record = (T) deepCopy((GenericContainer) record);
+    }
     //noinspection unchecked
-    sinkCall.getOutput().collect(new AvroWrapper<T>((T) tupleEntry.getObject(Fields.FIRST)), NullWritable.get());
+    sinkCall.getOutput().collect(new AvroWrapper<T>(record), NullWritable.get());
   }
 
   /**
@@ -84,6 +187,22 @@ public class PackedAvroScheme<T> extends AvroScheme {
     return getSourceFields();
   }
 
+  /**
+   * Keeps one key and value for all records when records are reused.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param sourceCall  The cascading SourceCall object. Should be passed in by cascading automatically.
+   * @throws java.io.IOException
+   */
+  @Override
+  public void sourcePrepare(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall)
+      throws IOException {
+    if (reuseRecords) {
+      RecordReader input = sourceCall.getInput();
+      sourceCall.setContext(new Object[]{input.createKey(), input.createValue()});
+    }
+  }
+
   /**
    * Reads in Avro records of type T and adds them as the first field in a tuple.
    *
@@ -95,8 +214,19 @@ public class PackedAvroScheme<T> extends AvroScheme {
   @Override
   public boolean source(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall) throws IOException {
     @SuppressWarnings("unchecked") RecordReader<AvroWrapper<T>, Writable> input = sourceCall.getInput();
-    AvroWrapper<T> wrapper = input.createKey();
-    if (!input.next(wrapper, input.createValue())) {
+    Object[] context = sourceCall.getContext();
+    AvroWrapper<T> wrapper;
+    Writable value;
+    if (context != null) {
+      // the reader decodes into the datum of the wrapper
+      //noinspection unchecked
+      wrapper = (AvroWrapper<T>) context[0];
+      value = (Writable) context[1];
+    } else {
+      wrapper = input.createKey();
+      value = input.createValue();
+    }
+    if (!input.next(wrapper, value)) {
       return false;
     }
     T record = wrapper.datum();
@@ -0,0 +1,218 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package cascading.avro;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.IndexedRecord;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Maps the leaf fields of a nested record schema to a flat list of fields, named by their path with dots, e.g.
+ * {@code user.address.city}. The path of every leaf is resolved once from the schema, so leaf values are read
+ * straight out of the nested records without building a Tuple for every nested record. Nested records that are
+ * optional, i.e. unions of null and a record, are flattened as well, and their leaves are null when the record is.
+ * Any other field, including maps, arrays and other unions, is a leaf.
+ * <p/>
+ * Records read in a task usually carry their own instance of the schema, so the positions of the leaves are resolved
+ * by name once per record schema. The last record schema instance seen is remembered, which makes the lookup for
+ * consecutive records of one file a reference comparison.
+ */
+class RecordFlattener {
+
+    static final String SEPARATOR = ".";
+
+    private final Schema schema;
+    private final Fields fields;
+    private final int[][] positions;
+    private final String[][] names;
+    private final Schema[] leafSchemas;
+    private volatile Object[] last;
+
+    RecordFlattener(Schema schema) {
+        this.schema = schema;
+        List<int[]> positionList = new ArrayList<int[]>();
+        List<String[]> nameList = new ArrayList<String[]>();
+        List<Schema> leafList = new ArrayList<Schema>();
+        collect(schema, new int[0], new String[0], new HashSet<String>(), positionList, nameList, leafList);
+
+        this.positions = positionList.toArray(new int[positionList.size()][]);
+        this.names = nameList.toArray(new String[nameList.size()][]);
+        this.leafSchemas = leafList.toArray(new Schema[leafList.size()]);
+        Comparable[] fieldNames = new Comparable[names.length];
+        for (int i = 0; i < names.length; i++) {
+            StringBuilder name = new StringBuilder(names[i][0]);
+            for (int j = 1; j < names[i].length; j++) {
+                name.append(SEPARATOR).append(names[i][j]);
+            }
+            fieldNames[i] = name.toString();
+        }
+        this.fields = new Fields(fieldNames);
+    }
+
+    private static void collect(Schema recordSchema, int[] position, String[] name, Set<String> enclosing,
+            List<int[]> positionList, List<String[]> nameList, List<Schema> leafList) {
+        if (!enclosing.add(recordSchema.getFullName())) {
+            throw new IllegalArgumentException("Can't flatten recursive record " + recordSchema.getFullName());
+        }
+        for (Field field : recordSchema.getFields()) {
+            int[] fieldPosition = append(position, field.pos());
+            String[] fieldName = append(name, field.name());
+            Schema nested = nestedRecord(field.schema());
+            if (nested != null) {
+                collect(nested, fieldPosition, fieldName, enclosing, positionList, nameList, leafList);
+            } else {
+                positionList.add(fieldPosition);
+                nameList.add(fieldName);
+                leafList.add(field.schema());
+            }
+        }
+        enclosing.remove(recordSchema.getFullName());
+    }
+
+    /**
+     * Returns the record schema of a field that is flattened, or null if the field is a leaf.
+     */
+    private static Schema nestedRecord(Schema schema) {
+        if (schema.getType() == Schema.Type.RECORD) {
+            return schema;
+        }
+        if (schema.getType() == Schema.Type.UNION && schema.getTypes().size() == 2) {
+            Schema first = schema.getTypes().get(0);
+            Schema second = schema.getTypes().get(1);
+            if (first.getType() == Schema.Type.NULL && second.getType() == Schema.Type.RECORD) {
+                return second;
+            }
+            if (second.getType() == Schema.Type.NULL && first.getType() == Schema.Type.RECORD) {
+                return first;
+            }
+        }
+        return null;
+    }
+
+    private static int[] append(int[] array, int element) {
+        int[] result = new int[array.length + 1];
+        System.arraycopy(array, 0, result, 0, array.length);
+        result[array.length] = element;
+        return result;
+    }
+
+    private static <T> T[] append(T[] array, T element) {
+        T[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = element;
+        return result;
+    }
+
+    /**
+     * Returns the flattened fields, in the depth first order of the schema.
+     *
+     * @return Fields The dotted names of the leaf fields.
+     */
+    Fields getFields() {
+        return fields;
+    }
+
+    /**
+     * Reads the leaf values of a record into a tuple, converted like {@link AvroToCascading} converts top level fields.
+     *
+     * @param record  The record, of the schema this flattener was made for or one that resolves to it by name.
+     * @param tuple   The tuple the values are added to.
+     * @param options The conversion options.
+     */
+    void flatten(IndexedRecord record, Tuple tuple, AvroToCascading.Options options) {
+        int[][] resolved = positionsFor(record.getSchema());
+        for (int i = 0; i < resolved.length; i++) {
+            Object value = record;
+            for (int depth = 0; depth < resolved[i].length && value != null; depth++) {
+                int position = resolved[i][depth];
+                value = position < 0 ? null : ((IndexedRecord) value).get(position);
+            }
+            tuple.add(AvroToCascading.fromAvro(value, leafSchemas[i], options));
+        }
+    }
+
+    /**
+     * Returns the positions of the leaves in records of the given schema, -1 where a field is missing.
+     */
+    private int[][] positionsFor(Schema recordSchema) {
+        Object[] memo = last;
+        if (memo != null && memo[0] == recordSchema) {
+            return (int[][]) memo[1];
+        }
+        int[][] resolved = positions;
+        if (recordSchema != schema) {
+            resolved = new int[names.length][];
+            for (int i = 0; i < names.length; i++) {
+                resolved[i] = resolve(recordSchema, names[i]);
+            }
+        }
+        last = new Object[]{recordSchema, resolved};
+        return resolved;
+    }
+
+    private static int[] resolve(Schema recordSchema, String[] path) {
+        int[] resolved = new int[path.length];
+        Schema current = recordSchema;
+        for (int depth = 0; depth < path.length; depth++) {
+            Field field = current == null ? null : current.getField(path[depth]);
+            resolved[depth] = field == null ? -1 : field.pos();
+            current = field == null ? null : nestedRecord(field.schema());
+        }
+        return resolved;
+    }
+
+    /**
+     * Builds the nested record from a tuple of leaf values, which must be in the order of {@link #getFields()}. An
+     * optional nested record is left null if all of its leaves are.
+     *
+     * @param tuple The flattened values.
+     * @return IndexedRecord The record.
+     */
+    IndexedRecord unflatten(Tuple tuple) {
+        if (tuple.size() != positions.length) {
+            throw new IllegalArgumentException("Arity mismatch between incoming tuple and flattened schema");
+        }
+        return build(schema, false, tuple, new int[1]);
+    }
+
+    private IndexedRecord build(Schema recordSchema, boolean optional, Tuple tuple, int[] next) {
+        Record record = new Record(recordSchema);
+        boolean empty = true;
+        for (Field field : recordSchema.getFields()) {
+            Schema nested = nestedRecord(field.schema());
+            Object value;
+            if (nested != null) {
+                value = build(nested, nested != field.schema(), tuple, next);
+            } else {
+                int leaf = next[0]++;
+                Object obj = tuple.getObject(leaf);
+                value = obj == null ? null : CascadingToAvro.toAvro(obj, leafSchemas[leaf]);
+            }
+            record.put(field.pos(), value);
+            empty &= value == null;
+        }
+        return optional && empty ? null : record;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cascading.avro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.parsing.ResolvingGrammarGenerator;
+
+/**
+ * Maps the fields of a reader schema onto records written with another schema. Fields are matched by name or alias,
+ * so they may be reordered, reader fields missing from the writer take their default value, and numbers are promoted
+ * to the wider type the reader asks for.
+ * <p/>
+ * Resolvers are built once per writer schema, identified by its parsing fingerprint, so data files written with the
+ * same schema share the setup cost. The last writer schema instance seen is remembered, which makes the lookup for
+ * consecutive records of one file a reference comparison.
+ */
+class RecordResolver {
+
+    private static final Map<Schema, Cache> CACHES = new ConcurrentHashMap<Schema, Cache>();
+
+    private final Schema readerSchema;
+    private final boolean identity;
+    private final int[] writerPositions;
+    private final Object[] defaults;
+    private final Type[] promotions;
+
+    static RecordResolver forSchemas(Schema writerSchema, Schema readerSchema) {
+        Cache cache = CACHES.get(readerSchema);
+        if (cache == null) {
+            cache = new Cache(readerSchema);
+            CACHES.put(readerSchema, cache);
+        }
+        return cache.get(writerSchema);
+    }
+
+    private RecordResolver(Schema writerSchema, Schema readerSchema) {
+        List<Field> readerFields = readerSchema.getFields();
+        this.readerSchema = readerSchema;
+        this.writerPositions = new int[readerFields.size()];
+        this.defaults = new Object[readerFields.size()];
+        this.promotions = new Type[readerFields.size()];
+
+        boolean sameLayout = writerSchema.getFields().size() == readerFields.size();
+        for (int i = 0; i < readerFields.size(); i++) {
+            Field readerField = readerFields.get(i);
+            Field writerField = writerField(writerSchema, readerField);
+            if (writerField == null) {
+                writerPositions[i] = -1;
+                defaults[i] = defaultValue(readerField);
+                sameLayout = false;
+                continue;
+            }
+            writerPositions[i] = writerField.pos();
+            promotions[i] = promotion(writerField.schema(), readerField.schema());
+            sameLayout &= writerField.pos() == i && promotions[i] == null;
+        }
+        this.identity = sameLayout;
+    }
+
+    /**
+     * Returns the value of a reader field, converted to its Cascading representation.
+     *
+     * @param record The record, written with the writer schema of this resolver.
+     * @param index  The position of the field in the reader schema.
+     * @param options The conversion options.
+     * @return Object The converted value.
+     */
+    Object read(IndexedRecord record, int index, AvroToCascading.Options options) {
+        Schema fieldSchema = readerSchema.getFields().get(index).schema();
+        if (identity) {
+            return AvroToCascading.fromAvro(record.get(index), fieldSchema, options);
+        }
+        int position = writerPositions[index];
+        Object value = position < 0 ? defaults[index] : record.get(position);
+        value = AvroToCascading.fromAvro(value, fieldSchema, options);
+        return promotions[index] == null ? value : promote(value, promotions[index]);
+    }
+
+    private static Field writerField(Schema writerSchema, Field readerField) {
+        Field writerField = writerSchema.getField(readerField.name());
+        if (writerField == null) {
+            for (String alias : readerField.aliases()) {
+                writerField = writerSchema.getField(alias);
+                if (writerField != null) {
+                    break;
+                }
+            }
+        }
+        return writerField;
+    }
+
+    /**
+     * Decodes the JSON default of a reader field into an Avro datum, the way a resolving decoder would.
+     */
+    private static Object defaultValue(Field field) {
+        if (field.defaultValue() == null) {
+            throw new AvroRuntimeException("Not a valid schema field: " + field.name());
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+            ResolvingGrammarGenerator.encode(encoder, field.schema(), field.defaultValue());
+            encoder.flush();
+            return new GenericDatumReader<Object>(field.schema()).read(null,
+                    DecoderFactory.get().binaryDecoder(out.toByteArray(), null));
+        } catch (IOException e) {
+            throw new AvroRuntimeException("Invalid default value for field " + field.name(), e);
+        }
+    }
+
+    /**
+     * Returns the numeric type a writer value has to be widened to, or null if it can be used as is.
+     */
+    private static Type promotion(Schema writer, Schema reader) {
+        Type readerType = concreteType(reader);
+        Type writerType = concreteType(writer);
+        if (readerType == writerType || writerType == null || !isNumeric(writerType)) {
+            return null;
+        }
+        return readerType == Type.LONG || readerType == Type.FLOAT || readerType == Type.DOUBLE ? readerType : null;
+    }
+
+    private static Type concreteType(Schema schema) {
+        if (schema.getType() != Type.UNION) {
+            return schema.getType();
+        }
+        Type concrete = null;
+        for (Schema type : schema.getTypes()) {
+            if (type.getType() == Type.NULL) {
+                continue;
+            } else if (concrete != null) {
+                return null;
+            }
+            concrete = type.getType();
+        }
+        return concrete;
+    }
+
+    private static boolean isNumeric(Type type) {
+        return type == Type.INT || type == Type.LONG || type == Type.FLOAT || type == Type.DOUBLE;
+    }
+
+    private static Object promote(Object value, Type type) {
+        if (!(value instanceof Number)) {
+            return value;
+        }
+        switch (type) {
+            case LONG:
+                return ((Number) value).longValue();
+            case FLOAT:
+                return ((Number) value).floatValue();
+            default:
+                return ((Number) value).doubleValue();
+        }
+    }
+
+    private static class Cache {
+        private final Schema readerSchema;
+        private final Map<Long, RecordResolver> byFingerprint = new ConcurrentHashMap<Long, RecordResolver>();
+        private volatile Object[] last;
+
+        Cache(Schema readerSchema) {
+            this.readerSchema = readerSchema;
+        }
+
+        RecordResolver get(Schema writerSchema) {
+            Object[] memo = last;
+            if (memo != null && memo[0] == writerSchema) {
+                return (RecordResolver) memo[1];
+            }
+            long fingerprint = SchemaNormalization.parsingFingerprint64(writerSchema);
+            RecordResolver resolver = byFingerprint.get(fingerprint);
+            if (resolver == null) {
+                resolver = new RecordResolver(writerSchema, readerSchema);
+                byFingerprint.put(fingerprint, resolver);
+            }
+            last = new Object[]{writerSchema, resolver};
+            return resolver;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro;
+
+import cascading.avro.mapred.TrevniInputFormat;
+import cascading.flow.FlowProcess;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.trevni.ColumnFileReader;
+import org.apache.trevni.avro.AvroTrevniOutputFormat;
+import org.apache.trevni.avro.HadoopInput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A columnar counterpart of {@link AvroScheme} that reads and writes Trevni files. Tuples are converted to and from
+ * Avro records exactly like AvroScheme does, but each column is stored separately, so a source that only asks for a
+ * few fields of a wide record only reads those columns from disk.
+ * <p/>
+ * The conversion options of {@link AbstractAvroScheme} apply, i.e. lazy collections and tuples, string and bytes
+ * types and flattening. The options AvroScheme has to tune how container files are read and written don't exist
+ * here, as Trevni files are read and written by Trevni's own formats. A sink needs a schema.
+ */
+public class TrevniScheme extends AbstractAvroScheme {
+
+  /** The metadata key Trevni's Avro writer stores the schema under. */
+  static final String SCHEMA_KEY = "avro.schema";
+
+  private final String[] columns;
+  private transient Schema projection;
+
+  /**
+   * Constructor to read from Trevni files without specifying the schema, which is then taken from one of the files.
+   */
+  public TrevniScheme() {
+    this(null);
+  }
+
+  /**
+   * Create a new scheme that reads and writes all fields of the given schema.
+   *
+   * @param schema Avro schema, or null if this is to be inferred from the source files.
+   */
+  public TrevniScheme(Schema schema) {
+    super(schema);
+    this.columns = null;
+  }
+
+  /**
+   * Create a new scheme that writes all fields of the given schema, but only reads the given source fields. Only the
+   * columns of these fields are read from the files.
+   *
+   * @param schema       Avro schema, or null if this is to be inferred from the source files.
+   * @param sourceFields The fields to read, which must be top level fields of the schema or, to read only some
+   *                     fields of a nested record, their paths with dots, e.g. {@code user.address.city}. Giving a
+   *                     path turns on {@link #setFlatten(boolean)}, as nested fields can only be sourced flattened.
+   */
+  public TrevniScheme(Schema schema, Fields sourceFields) {
+    super(schema);
+    this.columns = new String[sourceFields.size()];
+    for (int i = 0; i < sourceFields.size(); i++) {
+      columns[i] = sourceFields.get(i).toString();
+    }
+    setSourceFields(sourceFields);
+    if (getNestedColumn() != null) {
+      setFlatten(true);
+    }
+  }
+
+  /**
+   * Returns the first requested column that is a path into a nested record, or null if all are top level fields.
+   */
+  private String getNestedColumn() {
+    if (columns != null) {
+      for (String column : columns) {
+        if (column.indexOf(RecordFlattener.SEPARATOR) >= 0) {
+          return column;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the schema with only the requested columns, in the order they were requested in. Nested fields are kept
+   * together with the other requested fields of their record.
+   *
+   * @return Schema The schema used on the source side.
+   */
+  @Override
+  protected Schema getReadSchema() {
+    if (columns == null || schema == null || schema.getType() != Schema.Type.RECORD) {
+      return schema;
+    }
+    if (projection == null) {
+      projection = project(schema, Arrays.asList(columns));
+    }
+    return projection;
+  }
+
+  /**
+   * Projects a record schema onto the given field paths, grouped by the top level field they start with.
+   */
+  private static Schema project(Schema record, List<String> paths) {
+    // the nested paths requested of each field, or null for the whole field
+    Map<String, List<String>> requested = new LinkedHashMap<String, List<String>>();
+    for (String path : paths) {
+      int dot = path.indexOf(RecordFlattener.SEPARATOR);
+      String name = dot < 0 ? path : path.substring(0, dot);
+      if (record.getField(name) == null) {
+        throw new IllegalArgumentException("Field " + path + " is not in schema " + record.getFullName());
+      }
+      if (dot < 0) {
+        requested.put(name, null);
+      } else if (!requested.containsKey(name)) {
+        requested.put(name, new ArrayList<String>(Collections.singletonList(path.substring(dot + 1))));
+      } else if (requested.get(name) != null) {
+        requested.get(name).add(path.substring(dot + 1));
+      }
+    }
+    List<Field> fields = new ArrayList<Field>(requested.size());
+    for (Map.Entry<String, List<String>> entry : requested.entrySet()) {
+      Field field = record.getField(entry.getKey());
+      if (entry.getValue() == null) {
+        fields.add(new Field(field.name(), field.schema(), field.doc(), field.defaultValue()));
+      } else {
+        fields.add(new Field(field.name(), projectNested(field, entry.getValue()), field.doc(), null));
+      }
+    }
+    // same name as the full schema, so the files' schema resolves against it
+    Schema projected = Schema.createRecord(record.getName(), record.getDoc(), record.getNamespace(), false);
+    projected.setFields(fields);
+    return projected;
+  }
+
+  private static Schema projectNested(Field field, List<String> paths) {
+    Schema schema = field.schema();
+    if (schema.getType() == Schema.Type.RECORD) {
+      return project(schema, paths);
+    }
+    if (schema.getType() == Schema.Type.UNION) {
+      // an optional record keeps its null branch
+      List<Schema> types = new ArrayList<Schema>(schema.getTypes().size());
+      boolean hasRecord = false;
+      for (Schema type : schema.getTypes()) {
+        if (type.getType() == Schema.Type.RECORD && !hasRecord) {
+          types.add(project(type, paths));
+          hasRecord = true;
+        } else if (type.getType() == Schema.Type.NULL) {
+          types.add(type);
+        }
+      }
+      if (hasRecord && types.size() == schema.getTypes().size()) {
+        return Schema.createUnion(types);
+      }
+    }
+    throw new IllegalArgumentException("Field " + field.name() + " is not a nested record");
+  }
+
+  /**
+   * Sets up the source fields like AvroScheme does.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param tap         The cascading Tap object. Should be passed in by cascading automatically.
+   * @return Fields The source cascading fields.
+   * @throws IllegalArgumentException If a nested field was requested but flattening was turned off.
+   */
+  @Override
+  public Fields retrieveSourceFields(FlowProcess<JobConf> flowProcess, Tap tap) {
+    String nested = getNestedColumn();
+    if (nested != null && !flatten) {
+      throw new IllegalArgumentException("Field " + nested + " is a nested field, which can only be read with flatten");
+    }
+    return super.retrieveSourceFields(flowProcess, tap);
+  }
+
+  @Override
+  public void sourceConfInit(
+      FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap,
+      JobConf conf) {
+    super.sourceConfInit(flowProcess, tap, conf);
+    conf.setInputFormat(TrevniInputFormat.class);
+  }
+
+  /**
+   * Sets up the sink. Unlike with AvroScheme, a schema is required, since Trevni files are written column by column.
+   *
+   * @param flowProcess The cascading FlowProcess object. Should be passed in by cascading automatically.
+   * @param tap         The cascading Tap object. Should be passed in by cascading automatically.
+   * @param conf        The Hadoop JobConf object. This is passed in by cascading automatically.
+   * @throws RuntimeException If no schema is present this halts the entire process.
+   */
+  @Override
+  public void sinkConfInit(
+      FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap,
+      JobConf conf) {
+    if (schema == null) {
+      throw new RuntimeException("Must provide sink schema");
+    }
+    super.sinkConfInit(flowProcess, tap, conf);
+    conf.set(AvroJob.OUTPUT_SCHEMA, schema.toString());
+    conf.setOutputFormat(AvroTrevniOutputFormat.class);
+  }
+
+  @Override
+  protected Schema readFileSchema(FileSystem fs, Path path) throws IOException {
+    if (!path.getName().endsWith(TrevniInputFormat.EXT)) {
+      return null;
+    }
+    ColumnFileReader reader = new ColumnFileReader(new HadoopInput(path, fs.getConf()));
+    try {
+      return new Schema.Parser().parse(reader.getMetaData().getString(SCHEMA_KEY));
+    } finally {
+      reader.close();
+    }
+  }
+}
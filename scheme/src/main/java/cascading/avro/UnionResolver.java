@@ -0,0 +1,250 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cascading.avro;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.GenericContainer;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.io.BytesWritable;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Resolves the branch of an Avro union that a value belongs to. The table from Java class to branch is built once
+ * per union schema and shared by all readers and writers, so resolving a value is a single map lookup in the common
+ * case. Both the Cascading representations (String, BytesWritable, Tuple, ...) and the Avro ones (Utf8, ByteBuffer,
+ * records, ...) are understood.
+ */
+class UnionResolver {
+
+    private static final Map<Schema, UnionResolver> RESOLVERS = new ConcurrentHashMap<Schema, UnionResolver>();
+
+    private final Schema union;
+    private final List<Schema> types;
+    private final Integer nullIndex;
+    private final Map<Class<?>, Integer> branchByClass = new ConcurrentHashMap<Class<?>, Integer>();
+
+    static UnionResolver forSchema(Schema union) {
+        UnionResolver resolver = RESOLVERS.get(union);
+        if (resolver == null) {
+            resolver = new UnionResolver(union);
+            RESOLVERS.put(union, resolver);
+        }
+        return resolver;
+    }
+
+    private UnionResolver(Schema union) {
+        this.union = union;
+        this.types = union.getTypes();
+        if (types.size() < 1) {
+            throw new AvroRuntimeException("Union has no types");
+        }
+        this.nullIndex = indexOf(Type.NULL);
+
+        map(Boolean.class, Type.BOOLEAN);
+        map(Integer.class, Type.INT, Type.LONG, Type.FLOAT, Type.DOUBLE);
+        map(Long.class, Type.LONG, Type.FLOAT, Type.DOUBLE);
+        map(Float.class, Type.FLOAT, Type.DOUBLE);
+        map(Double.class, Type.DOUBLE);
+        map(String.class, Type.STRING, Type.ENUM);
+        map(Utf8.class, Type.STRING, Type.ENUM);
+        map(BytesWritable.class, Type.BYTES, Type.FIXED);
+        map(TupleEntry.class, Type.RECORD);
+        map(Tuple.class, Type.RECORD, Type.ARRAY, Type.MAP);
+    }
+
+    /**
+     * Returns the branch of the union that should be used for the given value.
+     *
+     * @param value A value in either the Cascading or the Avro representation, may be null.
+     * @return Schema The matching branch.
+     * @throws AvroRuntimeException if no branch of the union can hold the value.
+     */
+    Schema resolve(Object value) {
+        if (types.size() == 1) {
+            return types.get(0);
+        }
+        if (value == null) {
+            if (nullIndex == null) {
+                throw new AvroRuntimeException("Null value for a union without a null branch: " + union);
+            }
+            return types.get(nullIndex);
+        }
+        if (types.size() == 2 && nullIndex != null) {
+            return types.get(1 - nullIndex);
+        }
+        if (value instanceof GenericContainer) {
+            Integer index = union.getIndexNamed(((GenericContainer) value).getSchema().getFullName());
+            if (index != null) {
+                return types.get(index);
+            }
+        }
+        if (value instanceof TupleEntry || value instanceof Tuple) {
+            Schema record = resolveRecord(value);
+            if (record != null) {
+                return record;
+            }
+        }
+
+        Integer index = branchByClass.get(value.getClass());
+        if (index == null) {
+            if (value instanceof BigInteger || value instanceof BigDecimal) {
+                // the branch depends on the value, so it can't be memoized by class
+                return types.get(resolveNumber((Number) value));
+            }
+            index = resolveClass(value);
+            branchByClass.put(value.getClass(), index);
+        }
+        return types.get(index);
+    }
+
+    private void map(Class<?> clazz, Type... candidates) {
+        for (Type candidate : candidates) {
+            Integer index = indexOf(candidate);
+            if (index != null) {
+                branchByClass.put(clazz, index);
+                return;
+            }
+        }
+    }
+
+    private Integer indexOf(Type type) {
+        for (int i = 0; i < types.size(); i++) {
+            if (types.get(i).getType() == type) {
+                return i;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A union may contain several records, in which case a Tuple or TupleEntry is matched on its field names, or on
+     * its size when it has none.
+     */
+    private Schema resolveRecord(Object value) {
+        Schema match = null;
+        int records = 0;
+        for (Schema type : types) {
+            if (type.getType() != Type.RECORD) {
+                continue;
+            }
+            records++;
+            if (match == null && matchesRecord(value, type)) {
+                match = type;
+            }
+        }
+        return records > 1 ? match : null;
+    }
+
+    private static boolean matchesRecord(Object value, Schema record) {
+        if (value instanceof Tuple) {
+            return ((Tuple) value).size() == record.getFields().size();
+        }
+        Fields fields = ((TupleEntry) value).getFields();
+        if (fields.size() != record.getFields().size()) {
+            return false;
+        }
+        for (Schema.Field field : record.getFields()) {
+            if (!fields.contains(new Fields(field.name()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Slow path for classes that are not in the table, such as collection implementations and Java enums. The result
+     * is memoized by the caller.
+     */
+    private Integer resolveClass(Object value) {
+        Integer index = null;
+        if (value instanceof Enum) {
+            index = union.getIndexNamed(((Enum<?>) value).getDeclaringClass().getName());
+            if (index == null) {
+                index = firstOf(Type.ENUM, Type.STRING);
+            }
+        } else if (value instanceof CharSequence) {
+            index = firstOf(Type.STRING, Type.ENUM);
+        } else if (value instanceof ByteBuffer || value instanceof byte[]) {
+            index = firstOf(Type.BYTES, Type.FIXED);
+        } else if (value instanceof Map) {
+            index = indexOf(Type.MAP);
+        } else if (value instanceof Collection) {
+            index = indexOf(Type.ARRAY);
+        } else if (value instanceof Number) {
+            return resolveNumber((Number) value);
+        }
+        if (index == null) {
+            throw new AvroRuntimeException("Can't resolve " + value.getClass().getName() + " against union " + union);
+        }
+        return index;
+    }
+
+    /**
+     * Resolves a number that has no branch of its own type. Integral values that fit in a long go to a long branch
+     * and fractional ones to a double or float branch, so that neither is truncated on the way.
+     */
+    private Integer resolveNumber(Number value) {
+        Integer index = null;
+        if (isLong(value)) {
+            index = indexOf(Type.LONG);
+        } else if (value instanceof Float || value instanceof Double || isFractional(value)) {
+            index = firstOf(Type.DOUBLE, Type.FLOAT);
+        }
+        if (index == null) {
+            throw new AvroRuntimeException("Can't resolve " + value.getClass().getName() + " " + value
+                    + " against union " + union);
+        }
+        return index;
+    }
+
+    /**
+     * Returns whether the number is integral and fits in a long, i.e. converting it to a long loses nothing.
+     */
+    static boolean isLong(Number value) {
+        if (value instanceof BigInteger) {
+            return ((BigInteger) value).bitLength() < Long.SIZE;
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            return !isFractional(decimal) && decimal.toBigInteger().bitLength() < Long.SIZE;
+        }
+        return value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long
+                || value instanceof AtomicInteger || value instanceof AtomicLong;
+    }
+
+    private static boolean isFractional(Number value) {
+        return value instanceof BigDecimal && ((BigDecimal) value).stripTrailingZeros().scale() > 0;
+    }
+
+    private Integer firstOf(Type first, Type second) {
+        Integer index = indexOf(first);
+        return index != null ? index : indexOf(second);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * One block of an Avro data file: a number of records, encoded one after the other and compressed as a whole. A block
+ * starts out with its data as read from the file, and is then decompressed and possibly decoded.
+ */
+public class AvroBlock {
+
+  private final long start;
+  private final long count;
+  private ByteBuffer data;
+  private boolean compressed;
+  private List<?> records;
+
+  /**
+   * @param start The position in the file the block starts at, just after the sync marker before it.
+   * @param count The number of records in the block.
+   * @param data  The compressed data of the block.
+   */
+  public AvroBlock(long start, long count, ByteBuffer data) {
+    this.start = start;
+    this.count = count;
+    this.data = data;
+    this.compressed = true;
+  }
+
+  public long getStart() {
+    return start;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public ByteBuffer getData() {
+    return data;
+  }
+
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  /**
+   * Replaces the data of the block with its decompressed form.
+   *
+   * @param data The decompressed data.
+   */
+  public void setDecompressed(ByteBuffer data) {
+    this.data = data;
+    this.compressed = false;
+  }
+
+  /**
+   * Returns the decoded records, or null if the block hasn't been decoded.
+   *
+   * @return List The records of the block.
+   */
+  public List<?> getRecords() {
+    return records;
+  }
+
+  public void setRecords(List<?> records) {
+    this.records = records;
+  }
+}
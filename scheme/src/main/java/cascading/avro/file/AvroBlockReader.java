@@ -0,0 +1,306 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.SeekableInput;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads an Avro data file block by block, without decompressing or decoding the blocks. Like
+ * {@link org.apache.avro.file.DataFileReader}, a reader can be positioned at the first block after any position in
+ * the file, and tells whether it has moved past the end of a split.
+ */
+public class AvroBlockReader implements Closeable {
+
+  public static final int SYNC_SIZE = DataFileConstants.SYNC_SIZE;
+
+  private static final int SCAN_SIZE = 8192;
+
+  private final SeekableInput input;
+  private final BinaryDecoder decoder;
+  private final Map<String, byte[]> meta = new HashMap<String, byte[]>();
+  private final byte[] marker = new byte[SYNC_SIZE];
+  private final Schema schema;
+  /** The sync marker of the file. */
+  protected final byte[] sync = new byte[SYNC_SIZE];
+  /** The position of the first block. */
+  protected final long headerEnd;
+  /** The position of the next block. */
+  protected long blockStart;
+  private BufferPool pool;
+  private BlockSampler sampler;
+
+  /**
+   * Reads the header of a data file.
+   *
+   * @param input The data file, positioned at its start.
+   * @throws IOException if the input is not an Avro data file.
+   */
+  public AvroBlockReader(SeekableInput input) throws IOException {
+    this.input = input;
+    // a direct decoder doesn't read ahead, so the position of the input is always known
+    this.decoder = DecoderFactory.get().directBinaryDecoder(new SeekableInputStream(input), null);
+
+    byte[] magic = new byte[DataFileConstants.MAGIC.length];
+    try {
+      decoder.readFixed(magic);
+    } catch (EOFException e) {
+      throw new IOException("Not an Avro data file");
+    }
+    if (!Arrays.equals(DataFileConstants.MAGIC, magic)) {
+      throw new IOException("Not an Avro data file");
+    }
+    for (long l = decoder.readMapStart(); l != 0; l = decoder.mapNext()) {
+      for (long i = 0; i < l; i++) {
+        String key = decoder.readString(null).toString();
+        ByteBuffer value = decoder.readBytes(null);
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        meta.put(key, bytes);
+      }
+    }
+    decoder.readFixed(sync);
+
+    this.headerEnd = input.tell();
+    this.blockStart = headerEnd;
+    this.schema = new Schema.Parser().parse(getMetaString(DataFileConstants.SCHEMA));
+  }
+
+  /**
+   * Takes the arrays for block data from a pool. Callers should release the data of each block to the pool once they
+   * are done with it.
+   *
+   * @param pool The pool, or null to allocate the arrays.
+   */
+  public void setBufferPool(BufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Only reads the blocks a sampler selects, see {@link #nextBlock(long)}. The other blocks are skipped without
+   * reading their data.
+   *
+   * @param sampler The sampler, or null to read every block.
+   */
+  public void setSampler(BlockSampler sampler) {
+    this.sampler = sampler;
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Returns a metadata value of the file, e.g. the codec under {@link DataFileConstants#CODEC}.
+   *
+   * @param key The metadata key.
+   * @return String The value, or null if the file has none.
+   */
+  public String getMetaString(String key) {
+    byte[] value = meta.get(key);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return new String(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the position of the next block, just after the sync marker that precedes it.
+   *
+   * @return long The position in the file.
+   */
+  public long tell() {
+    return blockStart;
+  }
+
+  public long length() throws IOException {
+    return input.length();
+  }
+
+  /**
+   * Moves to the first block that starts after the given position, the way
+   * {@link org.apache.avro.file.DataFileReader#sync(long)} does.
+   *
+   * @param position A position in the file.
+   * @throws IOException
+   */
+  public void sync(long position) throws IOException {
+    if (position <= headerEnd - SYNC_SIZE) {
+      // the header ends with a sync marker
+      blockStart = headerEnd;
+      return;
+    }
+    input.seek(position);
+    byte[] window = new byte[SCAN_SIZE + SYNC_SIZE];
+    long windowStart = position;
+    int filled = 0;
+    int n;
+    while ((n = input.read(window, filled, window.length - filled)) > 0) {
+      filled += n;
+      for (int i = 0; i + SYNC_SIZE <= filled; i++) {
+        if (isSync(window, i)) {
+          blockStart = windowStart + i + SYNC_SIZE;
+          return;
+        }
+      }
+      // keep the bytes a marker could still start in
+      int keep = Math.min(filled, SYNC_SIZE - 1);
+      System.arraycopy(window, filled - keep, window, 0, keep);
+      windowStart += filled - keep;
+      filled = keep;
+    }
+    blockStart = input.length();
+  }
+
+  /**
+   * Returns true if the next block belongs to a later split than the one ending at the given position, or if there
+   * are no more blocks. This matches {@link org.apache.avro.file.DataFileReader#pastSync(long)}: a split reads every
+   * block whose preceding sync marker starts before its end.
+   *
+   * @param position The end of the split.
+   * @return boolean true if the reader is past the split.
+   * @throws IOException
+   */
+  public boolean pastSync(long position) throws IOException {
+    return blockStart >= position + SYNC_SIZE || blockStart >= input.length();
+  }
+
+  /**
+   * Reads the next block, as stored in the file.
+   *
+   * @return AvroBlock The block, with its data still compressed.
+   * @throws IOException if there is no next block, or the file is corrupt.
+   */
+  public AvroBlock nextBlock() throws IOException {
+    long start = blockStart;
+    if (input.tell() != start) {
+      input.seek(start);
+    }
+    long count = decoder.readLong();
+    long size = decoder.readLong();
+    if (size < 0 || size > Integer.MAX_VALUE) {
+      throw new IOException("Invalid block size " + size + " at " + start);
+    }
+    byte[] data = pool != null ? pool.acquire((int) size) : new byte[(int) size];
+    decoder.readFixed(data, 0, (int) size);
+    readSync(start);
+    return new AvroBlock(start, count, ByteBuffer.wrap(data, 0, (int) size));
+  }
+
+  /**
+   * Returns true if there is another block in the file.
+   *
+   * @return boolean false at the end of the file.
+   * @throws IOException
+   */
+  public boolean hasNextBlock() throws IOException {
+    return blockStart < input.length();
+  }
+
+  /**
+   * Reads the next block of a split that the sampler selects, skipping the blocks it doesn't.
+   *
+   * @param end The end of the split.
+   * @return AvroBlock The block, with its data still compressed, or null if there is none before the end.
+   * @throws IOException if the file is corrupt.
+   */
+  public AvroBlock nextBlock(long end) throws IOException {
+    while (!pastSync(end)) {
+      if (sampler == null || sampler.accept(blockStart)) {
+        return nextBlock();
+      }
+      skipBlock();
+    }
+    return null;
+  }
+
+  /**
+   * Moves past the next block without reading its data.
+   *
+   * @return long The number of records in the block.
+   * @throws IOException if there is no next block, or the file is corrupt.
+   */
+  public long skipBlock() throws IOException {
+    long start = blockStart;
+    if (input.tell() != start) {
+      input.seek(start);
+    }
+    long count = decoder.readLong();
+    long size = decoder.readLong();
+    if (size < 0) {
+      throw new IOException("Invalid block size " + size + " at " + start);
+    }
+    input.seek(input.tell() + size);
+    readSync(start);
+    return count;
+  }
+
+  private void readSync(long start) throws IOException {
+    decoder.readFixed(marker);
+    if (!Arrays.equals(sync, marker)) {
+      throw new IOException("Invalid sync marker after the block at " + start);
+    }
+    blockStart = input.tell();
+  }
+
+  protected boolean isSync(byte[] buffer, int offset) {
+    for (int i = 0; i < SYNC_SIZE; i++) {
+      if (buffer[offset + i] != sync[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void close() throws IOException {
+    input.close();
+  }
+
+  private static class SeekableInputStream extends InputStream {
+    private final SeekableInput input;
+    private final byte[] one = new byte[1];
+
+    SeekableInputStream(SeekableInput input) {
+      this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return input.read(one, 0, 1) == 1 ? one[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return input.read(b, off, len);
+    }
+  }
+}
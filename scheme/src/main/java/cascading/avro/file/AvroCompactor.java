@@ -0,0 +1,189 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Merges many small Avro data files into fewer large ones by copying their compressed blocks as they are, without
+ * decompressing, decoding or re-encoding any record. Files are merged with the files next to them that have the same
+ * schema and codec; a new output file is started when either changes or the output has reached the target size.
+ * Several directories (e.g. the partitions of a dataset) are compacted in parallel.
+ */
+public class AvroCompactor {
+
+  /** The size output files are filled up to, unless set otherwise. */
+  public static final long DEFAULT_TARGET_SIZE = 512L * 1024 * 1024;
+
+  private final Configuration conf;
+  private long targetSize = DEFAULT_TARGET_SIZE;
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  public AvroCompactor(Configuration conf) {
+    this.conf = conf;
+  }
+
+  /**
+   * Sets the size output files are filled up to. A file is closed once the input files copied into it add up to at
+   * least this size, so outputs may be larger by up to one input file.
+   *
+   * @param targetSize The size in bytes.
+   */
+  public void setTargetSize(long targetSize) {
+    if (targetSize < 1) {
+      throw new IllegalArgumentException("Target size must be positive");
+    }
+    this.targetSize = targetSize;
+  }
+
+  /**
+   * Sets the number of directories compacted at the same time.
+   *
+   * @param threads The number of threads.
+   */
+  public void setThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least 1");
+    }
+    this.threads = threads;
+  }
+
+  /**
+   * Compacts the Avro files of several directories in parallel.
+   *
+   * @param partitions The output directory for each input directory.
+   * @return Map The files written for each input directory.
+   * @throws IOException if a file can't be read or written.
+   */
+  public Map<Path, List<Path>> compact(Map<Path, Path> partitions) throws IOException {
+    List<Callable<List<Path>>> tasks = new ArrayList<Callable<List<Path>>>(partitions.size());
+    for (final Map.Entry<Path, Path> partition : partitions.entrySet()) {
+      tasks.add(new Callable<List<Path>>() {
+        public List<Path> call() throws IOException {
+          return compact(partition.getKey(), partition.getValue());
+        }
+      });
+    }
+    List<List<Path>> written = AvroFiles.runAll(tasks, threads, "compacting");
+    Map<Path, List<Path>> result = new LinkedHashMap<Path, List<Path>>();
+    int i = 0;
+    for (Path input : partitions.keySet()) {
+      result.put(input, written.get(i++));
+    }
+    return result;
+  }
+
+  /**
+   * Compacts the Avro files of one directory, in the order of their names. Hidden files and files starting with an
+   * underscore are left out. The input files are not removed.
+   *
+   * @param input  The directory to compact.
+   * @param output The directory to write the compacted files to, named part-00000.avro and so on. It must not be the
+   *               input directory or inside it, and existing files are not overwritten.
+   * @return List The files written.
+   * @throws IOException if a file can't be read or written, or the output overlaps the input or already exists.
+   */
+  public List<Path> compact(Path input, Path output) throws IOException {
+    FileSystem inputFs = input.getFileSystem(conf);
+    FileSystem outputFs = output.getFileSystem(conf);
+    checkOutput(inputFs.makeQualified(input), outputFs.makeQualified(output));
+    FileStatus[] files = AvroFiles.list(inputFs, input);
+    Arrays.sort(files);
+
+    List<Path> written = new ArrayList<Path>();
+    DataFileWriter<Object> writer = null;
+    Schema schema = null;
+    String codec = null;
+    long size = 0;
+    try {
+      for (FileStatus file : files) {
+        InputStream in = inputFs.open(file.getPath());
+        try {
+          DataFileStream<Object> stream = new DataFileStream<Object>(in, new GenericDatumReader<Object>());
+          String fileCodec = stream.getMetaString(DataFileConstants.CODEC);
+          if (fileCodec == null) {
+            fileCodec = DataFileConstants.NULL_CODEC;
+          }
+          if (writer == null || size >= targetSize || !stream.getSchema().equals(schema) || !fileCodec.equals(codec)) {
+            if (writer != null) {
+              writer.close();
+            }
+            schema = stream.getSchema();
+            codec = fileCodec;
+            size = 0;
+            Path path = new Path(output, String.format("part-%05d%s", written.size(), AvroOutputFormat.EXT));
+            writer = create(stream, outputFs, path);
+            written.add(path);
+          }
+          // the blocks are copied as they are, since the codecs match
+          writer.appendAllFrom(stream, false);
+          size += file.getLen();
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+    return written;
+  }
+
+  private static DataFileWriter<Object> create(DataFileStream<Object> stream, FileSystem fs, Path path)
+      throws IOException {
+    DataFileWriter<Object> writer = new DataFileWriter<Object>(new GenericDatumWriter<Object>());
+    String codec = stream.getMetaString(DataFileConstants.CODEC);
+    if (codec != null) {
+      writer.setCodec(CodecFactory.fromString(codec));
+    }
+    // user metadata is taken from the first file
+    for (String key : stream.getMetaKeys()) {
+      if (!key.startsWith("avro.")) {
+        writer.setMeta(key, stream.getMeta(key));
+      }
+    }
+    // an existing file may be an input still being read, or a previous run's output
+    return writer.create(stream.getSchema(), fs.create(path, false));
+  }
+
+  private static void checkOutput(Path input, Path output) throws IOException {
+    for (Path path = output; path != null; path = path.getParent()) {
+      if (path.equals(input)) {
+        throw new IOException("Output path must not be the input path or inside it: " + output);
+      }
+    }
+  }
+}
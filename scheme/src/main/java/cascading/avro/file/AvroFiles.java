@@ -0,0 +1,123 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Listing of Avro data files and running a task per file or directory in parallel, for the tools of this package.
+ */
+final class AvroFiles {
+
+  /** Leaves out hidden files and files starting with an underscore, e.g. _SUCCESS and _logs. */
+  static final PathFilter HIDDEN_FILTER = new PathFilter() {
+    public boolean accept(Path path) {
+      String name = path.getName();
+      return !name.startsWith("_") && !name.startsWith(".");
+    }
+  };
+
+  /** Accepts the files of {@link #HIDDEN_FILTER} with the .avro extension. */
+  static final PathFilter AVRO_FILTER = new PathFilter() {
+    public boolean accept(Path path) {
+      return HIDDEN_FILTER.accept(path) && path.getName().endsWith(AvroOutputFormat.EXT);
+    }
+  };
+
+  private AvroFiles() {
+  }
+
+  /**
+   * Lists the Avro files of one directory, without searching its subdirectories.
+   *
+   * @param fs  The file system of the directory.
+   * @param dir The directory.
+   * @return FileStatus[] The files.
+   * @throws IOException if the directory doesn't exist.
+   */
+  static FileStatus[] list(FileSystem fs, Path dir) throws IOException {
+    FileStatus[] files = fs.listStatus(dir, AVRO_FILTER);
+    if (files == null) {
+      throw new IOException("Input path does not exist: " + dir);
+    }
+    return files;
+  }
+
+  /**
+   * Adds a file if it is an Avro file, or the Avro files of a directory at any depth.
+   *
+   * @param fs     The file system of the file.
+   * @param status The file or directory.
+   * @param files  The list to add the files to.
+   * @throws IOException if a directory can't be listed.
+   */
+  static void addRecursive(FileSystem fs, FileStatus status, List<Path> files) throws IOException {
+    if (status.isDir()) {
+      for (FileStatus child : fs.listStatus(status.getPath(), HIDDEN_FILTER)) {
+        addRecursive(fs, child, files);
+      }
+    } else if (status.getPath().getName().endsWith(AvroOutputFormat.EXT)) {
+      files.add(status.getPath());
+    }
+  }
+
+  /**
+   * Runs tasks in parallel and waits for all of them. The failure of a task is thrown when its result is reached, and
+   * the tasks still running are then interrupted.
+   *
+   * @param tasks   The tasks.
+   * @param threads The number of tasks run at the same time.
+   * @param action  What the tasks do, for error messages, e.g. "counting".
+   * @return List The results, in the order of the tasks.
+   * @throws IOException if a task fails, or the calling thread is interrupted.
+   */
+  static <T> List<T> runAll(List<? extends Callable<T>> tasks, int threads, String action) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+      for (Callable<T> task : tasks) {
+        futures.add(pool.submit(task));
+      }
+      List<T> results = new ArrayList<T>(tasks.size());
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while " + action);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed while " + action, e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
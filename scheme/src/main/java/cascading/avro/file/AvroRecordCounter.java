@@ -0,0 +1,116 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.file.SeekableInput;
+import org.apache.avro.mapred.FsInput;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Counts the records of Avro data files from the record counts in the block headers. The data of the blocks is
+ * skipped, so nothing is decompressed or decoded and only a few bytes per block are read.
+ */
+public class AvroRecordCounter {
+
+  private AvroRecordCounter() {
+  }
+
+  /**
+   * Counts the records of one data file.
+   *
+   * @param input The data file. It is closed when done.
+   * @return long The number of records.
+   * @throws IOException if the input is not an Avro data file.
+   */
+  public static long count(SeekableInput input) throws IOException {
+    AvroBlockReader reader = null;
+    try {
+      reader = new AvroBlockReader(input);
+      long count = 0;
+      while (reader.hasNextBlock()) {
+        count += reader.skipBlock();
+      }
+      return count;
+    } finally {
+      if (reader != null) {
+        reader.close();
+      } else {
+        // the header couldn't be read
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Counts the records of one data file.
+   *
+   * @param path The data file.
+   * @param conf The configuration of its file system.
+   * @return long The number of records.
+   * @throws IOException if the file is not an Avro data file.
+   */
+  public static long count(Path path, Configuration conf) throws IOException {
+    return count(new FsInput(path, conf));
+  }
+
+  /**
+   * Counts the records of every Avro data file in the given paths, in parallel. Directories are searched for files
+   * with the .avro extension at any depth, skipping hidden files and files starting with an underscore.
+   *
+   * @param conf    The configuration of the file systems.
+   * @param threads The number of files counted at the same time.
+   * @param paths   Files, directories or glob patterns.
+   * @return Map The number of records of every file, in the order the files were found in.
+   * @throws IOException if a file is not an Avro data file, or a path doesn't exist.
+   */
+  public static Map<Path, Long> countFiles(final Configuration conf, int threads, Path... paths) throws IOException {
+    List<Path> files = new ArrayList<Path>();
+    for (Path path : paths) {
+      FileSystem fs = path.getFileSystem(conf);
+      FileStatus[] matches = fs.globStatus(path, AvroFiles.HIDDEN_FILTER);
+      if (matches == null) {
+        throw new IOException("Input path does not exist: " + path);
+      }
+      for (FileStatus match : matches) {
+        AvroFiles.addRecursive(fs, match, files);
+      }
+    }
+
+    List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(files.size());
+    for (final Path file : files) {
+      tasks.add(new Callable<Long>() {
+        public Long call() throws IOException {
+          return count(file, conf);
+        }
+      });
+    }
+    List<Long> counts = AvroFiles.runAll(tasks, threads, "counting");
+    Map<Path, Long> result = new LinkedHashMap<Path, Long>();
+    for (int i = 0; i < files.size(); i++) {
+      result.put(files.get(i), counts.get(i));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Rewrites Avro data files with another codec, e.g. deflate to snappy. Each block is decompressed and compressed
+ * again as a whole, without decoding any record, and the blocks keep their record counts. The schema and the user
+ * metadata of each file are kept. The files of a directory are transcoded in parallel.
+ */
+public class AvroTranscoder {
+
+  private final Configuration conf;
+  private final CodecFactory codec;
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * @param conf  The configuration of the file systems.
+   * @param codec The codec to write the files with, e.g. {@code CodecFactory.snappyCodec()}.
+   */
+  public AvroTranscoder(Configuration conf, CodecFactory codec) {
+    this.conf = conf;
+    this.codec = codec;
+  }
+
+  /**
+   * Sets the number of files transcoded at the same time.
+   *
+   * @param threads The number of threads.
+   */
+  public void setThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least 1");
+    }
+    this.threads = threads;
+  }
+
+  /**
+   * Transcodes one data file.
+   *
+   * @param input  The file to read.
+   * @param output The file to write. It is overwritten if it exists. If it is the input, the input is transcoded into
+   *               a hidden file next to it first, which then replaces the input.
+   * @throws IOException if the input is not an Avro data file.
+   */
+  public void transcode(Path input, Path output) throws IOException {
+    FileSystem fs = output.getFileSystem(conf);
+    if (!fs.makeQualified(output).equals(input.getFileSystem(conf).makeQualified(input))) {
+      write(input, output);
+      return;
+    }
+    // writing the input while it is read would truncate it
+    Path temp = new Path(output.getParent(), "." + output.getName() + ".transcoding");
+    try {
+      write(input, temp);
+    } catch (IOException e) {
+      fs.delete(temp, false);
+      throw e;
+    }
+    if (!fs.delete(output, false) || !fs.rename(temp, output)) {
+      throw new IOException("Could not replace " + output + " with " + temp);
+    }
+  }
+
+  private void write(Path input, Path output) throws IOException {
+    InputStream in = input.getFileSystem(conf).open(input);
+    try {
+      DataFileStream<Object> stream = new DataFileStream<Object>(in, new GenericDatumReader<Object>());
+      DataFileWriter<Object> writer = new DataFileWriter<Object>(new GenericDatumWriter<Object>());
+      writer.setCodec(codec);
+      for (String key : stream.getMetaKeys()) {
+        // the schema, codec and sync marker are the writer's own
+        if (!key.startsWith("avro.")) {
+          writer.setMeta(key, stream.getMeta(key));
+        }
+      }
+      writer.create(stream.getSchema(), output.getFileSystem(conf).create(output, true));
+      try {
+        writer.appendAllFrom(stream, true);
+      } finally {
+        writer.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Transcodes the Avro files of a directory in parallel, leaving out hidden files and files starting with an
+   * underscore. The output files have the names of the input files.
+   *
+   * @param input  The directory to read.
+   * @param output The directory to write to. If it is the input directory, the files are transcoded in place.
+   * @return List The files written.
+   * @throws IOException if a file can't be read or written.
+   */
+  public List<Path> transcodeAll(Path input, Path output) throws IOException {
+    FileStatus[] files = AvroFiles.list(input.getFileSystem(conf), input);
+    List<Callable<Path>> tasks = new ArrayList<Callable<Path>>(files.length);
+    for (FileStatus file : files) {
+      final Path from = file.getPath();
+      final Path to = new Path(output, from.getName());
+      tasks.add(new Callable<Path>() {
+        public Path call() throws IOException {
+          transcode(from, to);
+          return to;
+        }
+      });
+    }
+    return AvroFiles.runAll(tasks, threads, "transcoding");
+  }
+}
@@ -0,0 +1,159 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.DataFileConstants;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses the blocks of Avro data files. Avro's own codecs can only be used through its data file readers, so
+ * this reimplements the decompressing half of the null, deflate and snappy codecs. Codecs can be used from several
+ * threads at once. The null codec hands back the data as it is, so data that isn't on the heap stays where it is.
+ */
+public abstract class BlockCodec {
+
+  private static final BlockCodec NULL = new BlockCodec() {
+    @Override
+    public ByteBuffer decompress(ByteBuffer data, BufferPool pool) {
+      return data;
+    }
+  };
+
+  /**
+   * Returns the codec for the codec name stored in the header of a data file.
+   *
+   * @param name The codec name, or null for uncompressed files.
+   * @return BlockCodec The codec.
+   * @throws AvroRuntimeException if the codec isn't supported.
+   */
+  public static BlockCodec forName(String name) {
+    if (name == null || DataFileConstants.NULL_CODEC.equals(name)) {
+      return NULL;
+    } else if (DataFileConstants.DEFLATE_CODEC.equals(name)) {
+      return new DeflateCodec();
+    } else if (DataFileConstants.SNAPPY_CODEC.equals(name)) {
+      return new SnappyCodec();
+    }
+    throw new AvroRuntimeException("Unsupported codec: " + name);
+  }
+
+  /**
+   * Decompresses the data of a block.
+   *
+   * @param data The compressed data, from its position to its limit.
+   * @return ByteBuffer The decompressed data, which may be the compressed data itself.
+   * @throws IOException if the data is corrupt.
+   */
+  public ByteBuffer decompress(ByteBuffer data) throws IOException {
+    return decompress(data, null);
+  }
+
+  /**
+   * Decompresses the data of a block into an array taken from a pool.
+   *
+   * @param data The compressed data, from its position to its limit.
+   * @param pool The pool to take the array for the decompressed data from, or null to allocate it.
+   * @return ByteBuffer The decompressed data, which may be the compressed data itself.
+   * @throws IOException if the data is corrupt.
+   */
+  public abstract ByteBuffer decompress(ByteBuffer data, BufferPool pool) throws IOException;
+
+  static byte[] allocate(BufferPool pool, int size) {
+    return pool != null ? pool.acquire(size) : new byte[size];
+  }
+
+  /**
+   * Returns the data as a buffer backed by an array, copying it if it isn't, e.g. if it is part of a memory mapping.
+   */
+  public static ByteBuffer onHeap(ByteBuffer data) {
+    if (data.hasArray()) {
+      return data;
+    }
+    ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+    copy.put(data.duplicate());
+    copy.flip();
+    return copy;
+  }
+
+  private static class DeflateCodec extends BlockCodec {
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+      @Override
+      protected Inflater initialValue() {
+        return new Inflater(true);
+      }
+    };
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer compressed, BufferPool pool) throws IOException {
+      ByteBuffer data = onHeap(compressed);
+      Inflater inflater = inflaters.get();
+      inflater.reset();
+      inflater.setInput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+      byte[] out = allocate(pool, Math.max(1024, data.remaining() * 4));
+      int length = 0;
+      try {
+        while (!inflater.finished()) {
+          if (length == out.length) {
+            byte[] larger = allocate(pool, out.length * 2);
+            System.arraycopy(out, 0, larger, 0, length);
+            if (pool != null) {
+              pool.release(out);
+            }
+            out = larger;
+          }
+          int n = inflater.inflate(out, length, out.length - length);
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            // the input ended before the end of the deflate stream
+            if (pool != null) {
+              pool.release(out);
+            }
+            throw new IOException("Truncated deflate block");
+          }
+          length += n;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Invalid deflate data: " + e.getMessage());
+      }
+      return ByteBuffer.wrap(out, 0, length);
+    }
+  }
+
+  private static class SnappyCodec extends BlockCodec {
+    @Override
+    public ByteBuffer decompress(ByteBuffer compressed, BufferPool pool) throws IOException {
+      ByteBuffer data = onHeap(compressed);
+      // the compressed data is followed by the CRC32 of the decompressed data
+      byte[] in = data.array();
+      int offset = data.arrayOffset() + data.position();
+      int length = data.remaining() - 4;
+      byte[] out = allocate(pool, Snappy.uncompressedLength(in, offset, length));
+      int size = Snappy.uncompress(in, offset, length, out, 0);
+
+      CRC32 crc32 = new CRC32();
+      crc32.update(out, 0, size);
+      if (data.getInt(data.limit() - 4) != (int) crc32.getValue()) {
+        throw new IOException("Checksum failure");
+      }
+      return ByteBuffer.wrap(out, 0, size);
+    }
+  }
+}
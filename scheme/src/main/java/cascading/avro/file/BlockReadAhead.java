@@ -0,0 +1,181 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads the blocks of a split on a background thread and processes them there, e.g. decompresses and decodes them,
+ * while the caller works on earlier blocks. With more than one thread, blocks are processed in parallel on a pool and
+ * still handed out in file order. At most a fixed number of blocks are read ahead of the caller, which bounds the
+ * memory used. Errors of the background threads are thrown from {@link #next()}.
+ */
+public class BlockReadAhead implements Closeable {
+
+  /** The work done on each block before it is handed out. Called from several threads at once if there are. */
+  public interface Processor {
+    void process(AvroBlock block) throws IOException;
+  }
+
+  private static final FutureTask<AvroBlock> END = new FutureTask<AvroBlock>(new Callable<AvroBlock>() {
+    public AvroBlock call() {
+      return null;
+    }
+  });
+
+  private final BlockingQueue<Future<AvroBlock>> queue;
+  private final ExecutorService pool;
+  private final Thread thread;
+  private volatile Throwable failure;
+  private volatile boolean closed;
+  private boolean done;
+
+  /**
+   * Starts reading blocks, processing them on the reading thread.
+   *
+   * @param reader    The reader, positioned at the first block of the split. It must not be used by anyone else.
+   * @param end       The end of the split.
+   * @param blocks    The number of blocks that may be read ahead, at least 1.
+   * @param processor The work done on each block.
+   */
+  public BlockReadAhead(AvroBlockReader reader, long end, int blocks, Processor processor) {
+    this(reader, end, blocks, 1, processor);
+  }
+
+  /**
+   * Starts reading blocks.
+   *
+   * @param reader    The reader, positioned at the first block of the split. It must not be used by anyone else.
+   * @param end       The end of the split.
+   * @param blocks    The number of blocks that may be read ahead, at least 1. This includes the blocks being
+   *                  processed.
+   * @param threads   The number of threads blocks are processed on. With 1, blocks are processed on the thread that
+   *                  reads them.
+   * @param processor The work done on each block.
+   */
+  public BlockReadAhead(final AvroBlockReader reader, final long end, int blocks, int threads,
+                        final Processor processor) {
+    this.queue = new ArrayBlockingQueue<Future<AvroBlock>>(blocks);
+    this.pool = threads > 1 ? Executors.newFixedThreadPool(threads, new DaemonThreadFactory()) : null;
+    this.thread = new Thread("avro-read-ahead") {
+      @Override
+      public void run() {
+        try {
+          AvroBlock next;
+          while (!closed && (next = reader.nextBlock(end)) != null) {
+            final AvroBlock block = next;
+            FutureTask<AvroBlock> task = new FutureTask<AvroBlock>(new Callable<AvroBlock>() {
+              public AvroBlock call() throws IOException {
+                processor.process(block);
+                return block;
+              }
+            });
+            // queued before it runs, so the queue bounds the blocks in flight as well
+            queue.put(task);
+            if (pool != null) {
+              pool.execute(task);
+            } else {
+              task.run();
+            }
+          }
+        } catch (InterruptedException e) {
+          return;
+        } catch (Throwable t) {
+          failure = t;
+        }
+        try {
+          queue.put(END);
+        } catch (InterruptedException e) {
+          // closed
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns the next block in file order, waiting for it if necessary.
+   *
+   * @return AvroBlock The processed block, or null after the last block of the split.
+   * @throws IOException if reading or processing a block failed.
+   */
+  public AvroBlock next() throws IOException {
+    if (done) {
+      return null;
+    }
+    try {
+      Future<AvroBlock> task = queue.take();
+      if (task == END) {
+        done = true;
+        if (failure != null) {
+          throw asIOException(failure);
+        }
+        return null;
+      }
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading ahead");
+    } catch (ExecutionException e) {
+      done = true;
+      throw asIOException(e.getCause());
+    }
+  }
+
+  private static IOException asIOException(Throwable t) {
+    if (t instanceof IOException) {
+      return (IOException) t;
+    }
+    return new IOException("Reading ahead failed", t);
+  }
+
+  /**
+   * Stops the background threads. Blocks that were read ahead are dropped.
+   */
+  public void close() throws IOException {
+    closed = true;
+    thread.interrupt();
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing");
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private int count;
+
+    public synchronized Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "avro-block-decompressor-" + count++);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+/**
+ * Decides which blocks of a file are part of a sample. The decision only depends on the seed and the position of the
+ * block, so the same seed always selects the same blocks of the same file, however the file is split.
+ */
+public class BlockSampler {
+
+  private final double fraction;
+  private final long seed;
+
+  /**
+   * @param fraction The fraction of blocks to select, between 0 and 1.
+   * @param seed     The seed, e.g. a user given seed mixed with the path of the file.
+   */
+  public BlockSampler(double fraction, long seed) {
+    if (fraction < 0 || fraction > 1) {
+      throw new IllegalArgumentException("Fraction must be between 0 and 1");
+    }
+    this.fraction = fraction;
+    this.seed = seed;
+  }
+
+  /**
+   * Returns true if the block at the given position is part of the sample.
+   *
+   * @param blockStart The position of the block.
+   * @return boolean true to read the block, false to skip it.
+   */
+  public boolean accept(long blockStart) {
+    // the SplitMix64 finalizer spreads neighbouring positions over the whole range
+    long z = seed + blockStart * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z ^= z >>> 31;
+    return (z >>> 11) / (double) (1L << 53) < fraction;
+  }
+}
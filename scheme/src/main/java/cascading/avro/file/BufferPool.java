@@ -0,0 +1,129 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of byte arrays for block data, shared by all readers in a JVM. Arrays come in power of two size
+ * classes, so an array released by one block can be reused for any block of up to the same size. Released arrays are
+ * kept until the pool holds its limit in bytes; beyond that they are left to the garbage collector. The pool counts
+ * how often a request was served from the pool (hits) and how often an array had to be allocated (misses).
+ */
+public class BufferPool {
+
+  private static final int MIN_CLASS = 10;
+  private static final int CLASSES = 31;
+  private static final BufferPool SHARED = new BufferPool(0);
+
+  private final Queue<byte[]>[] classes;
+  private final AtomicLong retained = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private volatile long limit;
+
+  /**
+   * @param limit The number of bytes the pool may hold on to.
+   */
+  @SuppressWarnings("unchecked")
+  public BufferPool(long limit) {
+    this.limit = limit;
+    this.classes = new Queue[CLASSES];
+    for (int i = 0; i < CLASSES; i++) {
+      classes[i] = new ConcurrentLinkedQueue<byte[]>();
+    }
+  }
+
+  /**
+   * Returns the pool shared by the JVM, raising its limit to the given one if that is higher.
+   *
+   * @param limit The number of bytes the pool may hold on to.
+   * @return BufferPool The shared pool.
+   */
+  public static BufferPool shared(long limit) {
+    synchronized (SHARED) {
+      if (limit > SHARED.limit) {
+        SHARED.limit = limit;
+      }
+    }
+    return SHARED;
+  }
+
+  /**
+   * Returns an array of at least the given size, from the pool if there is one.
+   *
+   * @param size The size needed.
+   * @return byte[] The array, whose length may be larger than the size.
+   */
+  public byte[] acquire(int size) {
+    int sizeClass = sizeClass(size);
+    if (sizeClass >= CLASSES) {
+      misses.incrementAndGet();
+      return new byte[size];
+    }
+    byte[] buffer = classes[sizeClass].poll();
+    if (buffer != null) {
+      retained.addAndGet(-buffer.length);
+      hits.incrementAndGet();
+      return buffer;
+    }
+    misses.incrementAndGet();
+    return new byte[1 << sizeClass];
+  }
+
+  /**
+   * Hands an array back to the pool. The caller must not use it afterwards. Arrays that don't fit a size class are
+   * ignored.
+   *
+   * @param buffer The array.
+   */
+  public void release(byte[] buffer) {
+    int sizeClass = sizeClass(buffer.length);
+    if (sizeClass >= CLASSES || buffer.length != 1 << sizeClass) {
+      return;
+    }
+    if (retained.addAndGet(buffer.length) > limit) {
+      retained.addAndGet(-buffer.length);
+      return;
+    }
+    classes[sizeClass].offer(buffer);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of bytes held by the pool.
+   *
+   * @return long The bytes in arrays waiting to be reused.
+   */
+  public long getRetained() {
+    return retained.get();
+  }
+
+  private static int sizeClass(int size) {
+    if (size <= 1 << MIN_CLASS) {
+      return MIN_CLASS;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+}
@@ -0,0 +1,165 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.file.SeekableFileInput;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a local Avro data file through memory mapping. Sync markers are searched for in the mapped region, and the
+ * data of each block is a slice of the mapping rather than a copy on the heap, so uncompressed blocks are decoded
+ * straight from the page cache. Files larger than a mapping can be are mapped one window at a time.
+ */
+public class MappedAvroBlockReader extends AvroBlockReader {
+
+  private static final long WINDOW_SIZE = 1L << 30;
+
+  private final FileChannel channel;
+  private final long fileLength;
+  private final long windowSize;
+  private MappedByteBuffer window;
+  private long windowStart;
+  private long cursor;
+
+  public MappedAvroBlockReader(File file) throws IOException {
+    this(file, WINDOW_SIZE);
+  }
+
+  MappedAvroBlockReader(File file, long windowSize) throws IOException {
+    this(new SeekableFileInput(file), windowSize);
+  }
+
+  private MappedAvroBlockReader(SeekableFileInput input, long windowSize) throws IOException {
+    super(input);
+    this.channel = input.getChannel();
+    this.fileLength = channel.size();
+    this.windowSize = windowSize;
+  }
+
+  @Override
+  public void sync(long position) throws IOException {
+    if (position <= headerEnd - SYNC_SIZE) {
+      blockStart = headerEnd;
+      return;
+    }
+    long p = position;
+    while (p + SYNC_SIZE <= fileLength) {
+      ByteBuffer buffer = map(p, SYNC_SIZE);
+      // scan the whole window, and only remap for a marker that could cross its end
+      int last = buffer.capacity() - SYNC_SIZE;
+      int index = (int) (p - windowStart);
+      for (; index <= last; index++) {
+        if (isSync(buffer, index)) {
+          blockStart = windowStart + index + SYNC_SIZE;
+          return;
+        }
+      }
+      p = windowStart + index;
+    }
+    blockStart = fileLength;
+  }
+
+  private boolean isSync(ByteBuffer buffer, int offset) {
+    for (int i = 0; i < SYNC_SIZE; i++) {
+      if (buffer.get(offset + i) != sync[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public AvroBlock nextBlock() throws IOException {
+    long start = blockStart;
+    cursor = start;
+    long count = readLong();
+    long size = readLong();
+    if (size < 0 || size > Integer.MAX_VALUE) {
+      throw new IOException("Invalid block size " + size + " at " + start);
+    }
+    long dataStart = cursor;
+    ByteBuffer buffer = map(dataStart, size + SYNC_SIZE);
+    int index = (int) (dataStart - windowStart);
+
+    ByteBuffer data = buffer.duplicate();
+    data.limit(index + (int) size);
+    data.position(index);
+    for (int i = 0; i < SYNC_SIZE; i++) {
+      if (buffer.get(index + (int) size + i) != sync[i]) {
+        throw new IOException("Invalid sync marker after the block at " + start);
+      }
+    }
+    blockStart = dataStart + size + SYNC_SIZE;
+    return new AvroBlock(start, count, data.slice());
+  }
+
+  @Override
+  public long skipBlock() throws IOException {
+    long start = blockStart;
+    cursor = start;
+    long count = readLong();
+    long size = readLong();
+    if (size < 0) {
+      throw new IOException("Invalid block size " + size + " at " + start);
+    }
+    long markerStart = cursor + size;
+    ByteBuffer buffer = map(markerStart, SYNC_SIZE);
+    for (int i = 0; i < SYNC_SIZE; i++) {
+      if (buffer.get((int) (markerStart - windowStart) + i) != sync[i]) {
+        throw new IOException("Invalid sync marker after the block at " + start);
+      }
+    }
+    blockStart = markerStart + SYNC_SIZE;
+    return count;
+  }
+
+  private long readLong() throws IOException {
+    // zig-zag encoded, at most 10 bytes
+    ByteBuffer buffer = map(cursor, Math.min(10, fileLength - cursor));
+    long value = 0;
+    int shift = 0;
+    int b;
+    do {
+      if (cursor - windowStart >= buffer.limit()) {
+        throw new EOFException();
+      }
+      b = buffer.get((int) (cursor++ - windowStart)) & 0xff;
+      value |= (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Returns a mapping that contains the given range, remapping the window if it doesn't.
+   */
+  private ByteBuffer map(long position, long length) throws IOException {
+    if (length <= 0 || position + length > fileLength) {
+      throw new EOFException("Unexpected end of file at " + position);
+    }
+    if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+      long size = Math.min(fileLength - position, Math.max(length, windowSize));
+      window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+      windowStart = position;
+    }
+    return window;
+  }
+}
@@ -0,0 +1,155 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A RecordWriter that hands its records to a background thread, which writes them to the wrapped writer. For Avro
+ * files this moves encoding, compression and the file system writes off the thread that produces the records. At
+ * most a fixed number of records wait in the queue, so a slow file system slows the producer down instead of using
+ * up memory.
+ * <p/>
+ * The records must not be modified after they have been written. A failure on the background thread is thrown from
+ * the next call to write or close. Close waits until every queued record has been written, and then closes the
+ * wrapped writer. The wrapped writer is closed even if writing failed, so its file is never left open.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class AsyncRecordWriter<K, V> implements RecordWriter<K, V> {
+
+  private static final Object[] END = new Object[0];
+  private static final long POLL_MILLIS = 100;
+
+  private final RecordWriter<K, V> delegate;
+  private final BlockingQueue<Object[]> queue;
+  private final Thread thread;
+  private volatile Throwable failure;
+
+  /**
+   * @param delegate  The writer to write the records to, on the background thread.
+   * @param queueSize The number of records that may wait to be written.
+   */
+  public AsyncRecordWriter(RecordWriter<K, V> delegate, int queueSize) {
+    this.delegate = delegate;
+    this.queue = new ArrayBlockingQueue<Object[]>(queueSize);
+    this.thread = new Thread(new Runnable() {
+      public void run() {
+        drain();
+      }
+    }, "avro-async-writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void write(K key, V value) throws IOException {
+    put(new Object[]{key, value});
+  }
+
+  public void close(Reporter reporter) throws IOException {
+    boolean written = false;
+    try {
+      if (failure == null) {
+        // a failed writer thread no longer takes records
+        put(END);
+      }
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for records to be written");
+      }
+      checkFailure();
+      written = true;
+    } finally {
+      if (!written) {
+        stopWriter();
+        try {
+          delegate.close(reporter);
+        } catch (IOException e) {
+          // the failure that got us here is thrown instead
+        }
+      }
+    }
+    delegate.close(reporter);
+  }
+
+  /**
+   * Stops the writer thread, so the wrapped writer can be closed without racing it.
+   */
+  private void stopWriter() {
+    thread.interrupt();
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void put(Object[] entry) throws IOException {
+    try {
+      while (!queue.offer(entry, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        // the writer thread stops taking records when it fails
+        checkFailure();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while queueing a record");
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable cause = failure;
+    if (cause == null) {
+      return;
+    }
+    if (cause instanceof IOException) {
+      throw new IOException(cause.getMessage(), cause);
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    throw new IOException("Failed to write record", cause);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void drain() {
+    try {
+      while (true) {
+        Object[] entry = queue.take();
+        if (entry == END) {
+          return;
+        }
+        delegate.write((K) entry[0], (V) entry[1]);
+      }
+    } catch (Throwable t) {
+      failure = t;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import org.apache.avro.mapred.AvroInputFormat;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+
+/**
+ * An {@link AvroInputFormat} that reads the files block by block with {@link AvroBlockRecordReader}, which can read
+ * ahead of the records handed out. Files and splits are the same as for AvroInputFormat.
+ *
+ * @param <T> The type of the datums read.
+ */
+public class AvroBlockInputFormat<T> extends AvroInputFormat<T> {
+
+  /** The number of blocks read and decompressed ahead on a background thread, or 0 to read on the calling thread. */
+  public static final String READ_AHEAD_KEY = "cascading.avro.source.read.ahead.blocks";
+
+  /**
+   * The number of threads that decompress the blocks of a split in parallel. More than 1 implies reading ahead, by
+   * at least as many blocks as there are threads.
+   */
+  public static final String DECOMPRESSION_THREADS_KEY = "cascading.avro.source.decompression.threads";
+
+  /** Whether the records of the blocks read ahead are also decoded on the background thread. */
+  public static final String DECODE_AHEAD_KEY = "cascading.avro.source.decode.ahead";
+
+  /** Whether files on the local file system are memory mapped instead of read through streams. */
+  public static final String MEMORY_MAP_KEY = "cascading.avro.source.memory.map";
+
+  /**
+   * The number of bytes of block buffers kept for reuse by all readers of the JVM, or 0 to allocate a new buffer for
+   * every block.
+   */
+  public static final String BUFFER_POOL_SIZE_KEY = "cascading.avro.source.buffer.pool.size";
+
+  /** The name of a specific record class to read the records into, instead of the classes found for their schema. */
+  public static final String RECORD_CLASS_KEY = "cascading.avro.source.record.class";
+
+  /**
+   * The fraction of blocks to read, between 0 and 1. The other blocks are skipped without being read, decompressed or
+   * decoded.
+   */
+  public static final String SAMPLE_FRACTION_KEY = "cascading.avro.source.sample.fraction";
+
+  /** The seed that, together with the path of a file, decides which of its blocks are sampled. */
+  public static final String SAMPLE_SEED_KEY = "cascading.avro.source.sample.seed";
+
+  /** The maximum number of records read from each split, or 0 to read all of them. */
+  public static final String SAMPLE_MAX_RECORDS_KEY = "cascading.avro.source.sample.max.records";
+
+  /**
+   * Whether the keys also carry the encoded form of each record, see {@link RawAvroWrapper}. This only happens when
+   * the records are read with the schema they were written with, and turns decoding ahead off.
+   */
+  public static final String RAW_RECORDS_KEY = "cascading.avro.source.raw.records";
+
+  @Override
+  public RecordReader<AvroWrapper<T>, NullWritable> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+      throws IOException {
+    reporter.setStatus(split.toString());
+    return new AvroBlockRecordReader<T>(job, (FileSplit) split, reporter);
+  }
+}
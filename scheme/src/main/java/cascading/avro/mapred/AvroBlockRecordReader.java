@@ -0,0 +1,348 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import cascading.avro.file.AvroBlock;
+import cascading.avro.file.AvroBlockReader;
+import cascading.avro.file.BlockCodec;
+import cascading.avro.file.BlockReadAhead;
+import cascading.avro.file.BlockSampler;
+import cascading.avro.file.BufferPool;
+import cascading.avro.file.MappedAvroBlockReader;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.avro.mapred.FsInput;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.util.ByteBufferInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the records of a split of an Avro data file. Unlike {@link org.apache.avro.mapred.AvroRecordReader}, blocks
+ * are read and decompressed as a whole, which lets a background thread do that for the next blocks while the
+ * records of the current one are handed out (see {@link AvroBlockInputFormat#READ_AHEAD_KEY}), or several threads
+ * decompress blocks in parallel ({@link AvroBlockInputFormat#DECOMPRESSION_THREADS_KEY}). The background threads can
+ * also decode the records ({@link AvroBlockInputFormat#DECODE_AHEAD_KEY}), in which case every record is a new object.
+ * Files on the local file system can be memory mapped ({@link AvroBlockInputFormat#MEMORY_MAP_KEY}), and block data can
+ * be kept in a {@link BufferPool} shared by the JVM ({@link AvroBlockInputFormat#BUFFER_POOL_SIZE_KEY}). A sample of the
+ * records can be read by skipping whole blocks ({@link AvroBlockInputFormat#SAMPLE_FRACTION_KEY}) and by stopping after
+ * a number of records ({@link AvroBlockInputFormat#SAMPLE_MAX_RECORDS_KEY}). With
+ * {@link AvroBlockInputFormat#RAW_RECORDS_KEY}, keys are {@link RawAvroWrapper}s that also carry each record as it was
+ * encoded in the file.
+ *
+ * @param <T> The type of the datums read.
+ */
+public class AvroBlockRecordReader<T> implements RecordReader<AvroWrapper<T>, NullWritable> {
+
+  /** The counter group of the buffer pool's hits and misses. */
+  public static final String COUNTER_GROUP = "AvroBufferPool";
+
+  /**
+   * The datum readers of each thread, by writer schema fingerprint, reader schema and record class. Splits of files
+   * written with the same schema share them, and with them the resolving decoders Avro caches per writer schema
+   * instance, instead of building them again for every split.
+   */
+  private static final Map<List<Object>, ThreadLocal<DatumReader<?>>> DATUM_READERS =
+      new ConcurrentHashMap<List<Object>, ThreadLocal<DatumReader<?>>>();
+
+  private final AvroBlockReader reader;
+  private final BlockCodec codec;
+  private final ThreadLocal<DatumReader<T>> datumReaders;
+  private final boolean decodeAhead;
+  private final boolean rawRecords;
+  private final BlockReadAhead readAhead;
+  private final long start;
+  private final long end;
+  private final BufferPool pool;
+  private final Reporter reporter;
+  private final long initialHits;
+  private final long initialMisses;
+
+  private final long maxRecords;
+
+  private long position;
+  private long remaining;
+  private long recordsRead;
+  private AvroBlock current;
+  private BinaryDecoder decoder;
+  private Iterator<T> records;
+
+  public AvroBlockRecordReader(JobConf job, FileSplit split) throws IOException {
+    this(job, split, Reporter.NULL);
+  }
+
+  /**
+   * @param job      The job configuration.
+   * @param split    The split to read.
+   * @param reporter Receives the hits and misses of the buffer pool when the reader is closed.
+   * @throws IOException
+   */
+  public AvroBlockRecordReader(JobConf job, FileSplit split, Reporter reporter) throws IOException {
+    this(openReader(job, split.getPath()), job, split, reporter);
+  }
+
+  protected AvroBlockRecordReader(AvroBlockReader reader, JobConf job, FileSplit split, Reporter reporter)
+      throws IOException {
+    this.reader = reader;
+    this.reporter = reporter;
+    long poolSize = job.getLong(AvroBlockInputFormat.BUFFER_POOL_SIZE_KEY, 0);
+    this.pool = poolSize > 0 ? BufferPool.shared(poolSize) : null;
+    this.initialHits = pool != null ? pool.getHits() : 0;
+    this.initialMisses = pool != null ? pool.getMisses() : 0;
+    reader.setBufferPool(pool);
+    this.codec = BlockCodec.forName(reader.getMetaString(DataFileConstants.CODEC));
+    Schema writerSchema = reader.getSchema();
+    Schema readerSchema = job.get(AvroJob.INPUT_SCHEMA) != null ? AvroJob.getInputSchema(job) : writerSchema;
+    this.datumReaders = datumReaders(writerSchema, readerSchema, AvroBlockRecordReader.<T>getRecordClass(job));
+
+    double fraction = Double.parseDouble(job.get(AvroBlockInputFormat.SAMPLE_FRACTION_KEY, "1"));
+    if (fraction < 1) {
+      // the same blocks of a file are sampled whichever split they are read by
+      long seed = job.getLong(AvroBlockInputFormat.SAMPLE_SEED_KEY, 0) ^ split.getPath().toUri().getPath().hashCode();
+      reader.setSampler(new BlockSampler(fraction, seed));
+    }
+    this.maxRecords = job.getLong(AvroBlockInputFormat.SAMPLE_MAX_RECORDS_KEY, 0);
+
+    reader.sync(split.getStart());
+    this.start = reader.tell();
+    this.end = split.getStart() + split.getLength();
+    this.position = start;
+
+    int threads = job.getInt(AvroBlockInputFormat.DECOMPRESSION_THREADS_KEY, 1);
+    int blocks = job.getInt(AvroBlockInputFormat.READ_AHEAD_KEY, 0);
+    if (threads > 1) {
+      // every thread needs a block to work on
+      blocks = Math.max(blocks, threads);
+    }
+    // the encoded records are only of use if they are in the schema the records are read with
+    this.rawRecords = job.getBoolean(AvroBlockInputFormat.RAW_RECORDS_KEY, false) && writerSchema.equals(readerSchema);
+    this.decodeAhead = blocks > 0 && !rawRecords && job.getBoolean(AvroBlockInputFormat.DECODE_AHEAD_KEY, false);
+    if (blocks > 0) {
+      this.readAhead = new BlockReadAhead(reader, end, blocks, threads, new BlockReadAhead.Processor() {
+        public void process(AvroBlock block) throws IOException {
+          AvroBlockRecordReader.this.process(block);
+        }
+      });
+    } else {
+      this.readAhead = null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> ThreadLocal<DatumReader<T>> datumReaders(final Schema writerSchema, final Schema readerSchema,
+      final Class<T> recordClass) {
+    List<Object> key = Arrays.<Object>asList(SchemaNormalization.parsingFingerprint64(writerSchema), readerSchema,
+        recordClass);
+    ThreadLocal<DatumReader<?>> readers = DATUM_READERS.get(key);
+    if (readers == null) {
+      // datum readers keep caches that aren't thread safe, so each decoding thread gets its own
+      readers = new ThreadLocal<DatumReader<?>>() {
+        @Override
+        protected DatumReader<?> initialValue() {
+          if (recordClass != null) {
+            SpecificDatumReader<T> datumReader = new SpecificDatumReader<T>(recordClass);
+            datumReader.setSchema(writerSchema);
+            return datumReader;
+          }
+          // reads generic as well as specific records
+          return new SpecificDatumReader<T>(writerSchema, readerSchema);
+        }
+      };
+      DATUM_READERS.put(key, readers);
+    }
+    return (ThreadLocal<DatumReader<T>>) (ThreadLocal<?>) readers;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Class<T> getRecordClass(JobConf job) throws IOException {
+    String name = job.get(AvroBlockInputFormat.RECORD_CLASS_KEY);
+    if (name == null) {
+      return null;
+    }
+    try {
+      return (Class<T>) job.getClassByName(name);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Record class not found: " + name, e);
+    }
+  }
+
+  private static AvroBlockReader openReader(JobConf job, Path path) throws IOException {
+    if (job.getBoolean(AvroBlockInputFormat.MEMORY_MAP_KEY, false) && "file".equals(path.toUri().getScheme())) {
+      return new MappedAvroBlockReader(new File(path.toUri().getPath()));
+    }
+    return new AvroBlockReader(new FsInput(path, job));
+  }
+
+  private void process(AvroBlock block) throws IOException {
+    ByteBuffer compressed = block.getData();
+    block.setDecompressed(codec.decompress(compressed, pool));
+    if (block.getData() != compressed) {
+      release(compressed);
+    }
+    if (rawRecords) {
+      // encoded records are copied out of an array
+      block.setDecompressed(BlockCodec.onHeap(block.getData()));
+    }
+    if (decodeAhead) {
+      DatumReader<T> datumReader = datumReaders.get();
+      BinaryDecoder blockDecoder = decoderFor(block.getData(), null);
+      List<T> decoded = new ArrayList<T>((int) block.getCount());
+      for (long i = 0; i < block.getCount(); i++) {
+        decoded.add(datumReader.read(null, blockDecoder));
+      }
+      block.setRecords(decoded);
+      // decoded records don't share the block's data
+      release(block.getData());
+    }
+  }
+
+  private void release(ByteBuffer data) {
+    if (pool != null && data.hasArray()) {
+      pool.release(data.array());
+    }
+  }
+
+  private static BinaryDecoder decoderFor(ByteBuffer data, BinaryDecoder reuse) {
+    if (!data.hasArray()) {
+      // e.g. an uncompressed block of a memory mapped file
+      return DecoderFactory.get().binaryDecoder(
+          new ByteBufferInputStream(Collections.singletonList(data.duplicate())), reuse);
+    }
+    return DecoderFactory.get().binaryDecoder(data.array(), data.arrayOffset() + data.position(), data.remaining(),
+        reuse);
+  }
+
+  private AvroBlock nextBlock() throws IOException {
+    if (readAhead != null) {
+      return readAhead.next();
+    }
+    AvroBlock block = reader.nextBlock(end);
+    if (block != null) {
+      process(block);
+    }
+    return block;
+  }
+
+  @SuppressWarnings("unchecked")
+  public boolean next(AvroWrapper<T> wrapper, NullWritable ignore) throws IOException {
+    if (maxRecords > 0 && recordsRead >= maxRecords) {
+      position = end;
+      return false;
+    }
+    while (remaining == 0) {
+      releaseCurrent();
+      AvroBlock block = nextBlock();
+      if (block == null) {
+        position = end;
+        return false;
+      }
+      current = block;
+      position = block.getStart();
+      remaining = block.getCount();
+      if (block.getRecords() != null) {
+        records = (Iterator<T>) block.getRecords().iterator();
+      } else {
+        records = null;
+        decoder = decoderFor(block.getData(), decoder);
+      }
+    }
+    remaining--;
+    recordsRead++;
+    if (rawRecords && wrapper instanceof RawAvroWrapper) {
+      readRaw((RawAvroWrapper<T>) wrapper);
+      return true;
+    }
+    wrapper.datum(records != null ? records.next() : datumReaders.get().read(wrapper.datum(), decoder));
+    return true;
+  }
+
+  /**
+   * Decodes the next record and keeps a copy of its encoded form.
+   */
+  private void readRaw(RawAvroWrapper<T> wrapper) throws IOException {
+    ByteBuffer data = current.getData();
+    // what the decoder hasn't consumed yet, including its buffer. This is only exact because the decoder reads
+    // straight from the block's array: its buffer is that array, so available() is the array's unread remainder. A
+    // decoder over a stream would have read ahead by an unknown amount, which is why raw blocks are kept on heap.
+    int recordStart = data.remaining() - decoder.inputStream().available();
+    wrapper.datum(datumReaders.get().read(wrapper.datum(), decoder));
+    int recordEnd = data.remaining() - decoder.inputStream().available();
+    byte[] encoded = new byte[recordEnd - recordStart];
+    System.arraycopy(data.array(), data.arrayOffset() + data.position() + recordStart, encoded, 0, encoded.length);
+    wrapper.setEncoded(encoded);
+  }
+
+  private void releaseCurrent() {
+    if (current != null && current.getRecords() == null) {
+      release(current.getData());
+    }
+    current = null;
+  }
+
+  public AvroWrapper<T> createKey() {
+    if (rawRecords) {
+      return new RawAvroWrapper<T>(null);
+    }
+    return new AvroWrapper<T>(null);
+  }
+
+  public NullWritable createValue() {
+    return NullWritable.get();
+  }
+
+  public long getPos() throws IOException {
+    return position;
+  }
+
+  public float getProgress() throws IOException {
+    if (end == start) {
+      return 0.0f;
+    }
+    return Math.min(1.0f, (position - start) / (float) (end - start));
+  }
+
+  public void close() throws IOException {
+    if (readAhead != null) {
+      readAhead.close();
+    }
+    releaseCurrent();
+    reader.close();
+    if (pool != null) {
+      reporter.incrCounter(COUNTER_GROUP, "Hits", pool.getHits() - initialHits);
+      reporter.incrCounter(COUNTER_GROUP, "Misses", pool.getMisses() - initialMisses);
+    }
+  }
+}
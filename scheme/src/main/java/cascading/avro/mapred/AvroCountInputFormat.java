@@ -0,0 +1,103 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import cascading.avro.file.AvroRecordCounter;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads one record per Avro data file: the path of the file and its number of records, counted from the block
+ * headers with {@link AvroRecordCounter}. Every file is one split, so files are counted in parallel by the tasks.
+ */
+public class AvroCountInputFormat extends FileInputFormat<Text, LongWritable> {
+
+  @Override
+  protected boolean isSplitable(FileSystem fs, Path file) {
+    return false;
+  }
+
+  @Override
+  protected FileStatus[] listStatus(JobConf job) throws IOException {
+    List<FileStatus> result = new ArrayList<FileStatus>();
+    for (FileStatus file : super.listStatus(job)) {
+      if (file.getPath().getName().endsWith(AvroOutputFormat.EXT)) {
+        result.add(file);
+      }
+    }
+    return result.toArray(new FileStatus[result.size()]);
+  }
+
+  @Override
+  public RecordReader<Text, LongWritable> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+      throws IOException {
+    reporter.setStatus(split.toString());
+    return new CountRecordReader(job, ((FileSplit) split).getPath());
+  }
+
+  private static class CountRecordReader implements RecordReader<Text, LongWritable> {
+    private final JobConf job;
+    private final Path path;
+    private boolean done;
+
+    CountRecordReader(JobConf job, Path path) {
+      this.job = job;
+      this.path = path;
+    }
+
+    public boolean next(Text key, LongWritable value) throws IOException {
+      if (done) {
+        return false;
+      }
+      key.set(path.toString());
+      value.set(AvroRecordCounter.count(path, job));
+      done = true;
+      return true;
+    }
+
+    public Text createKey() {
+      return new Text();
+    }
+
+    public LongWritable createValue() {
+      return new LongWritable();
+    }
+
+    public long getPos() {
+      return 0;
+    }
+
+    public float getProgress() {
+      return done ? 1.0f : 0.0f;
+    }
+
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericContainer;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * An Avro container file output format that does not need the output schema up front. Unless the job has an output
+ * schema, the file is only created when the first datum arrives and is written with the schema of that datum, so
+ * every task can write records whose schema was worked out at run time. Codec and deflate level are taken from the
+ * same job settings as {@link AvroOutputFormat}. Tasks that write nothing leave no file behind.
+ * <p/>
+ * When {@link #ASYNC_QUEUE_SIZE_KEY} is set, datums are encoded, compressed and written on a background thread, see
+ * {@link AsyncRecordWriter}. Datums wrapped in a {@link RawAvroWrapper} are written in the encoded form they carry.
+ *
+ * @param <T> The type of the datums, which must carry their schema.
+ */
+public class DeferredAvroOutputFormat<T extends GenericContainer> extends FileOutputFormat<AvroWrapper<T>, NullWritable> {
+
+  /** The number of datums that may wait for the background writer, or 0 to write on the calling thread. */
+  public static final String ASYNC_QUEUE_SIZE_KEY = "cascading.avro.sink.async.queue.size";
+
+  static final int DEFAULT_DEFLATE_LEVEL = 1;
+
+  /** The job settings {@link AvroOutputFormat} takes the sync interval and file metadata from. */
+  static final String SYNC_INTERVAL_KEY = "avro.mapred.sync.interval";
+  static final String TEXT_META_PREFIX = "avro.meta.text.";
+  static final String BINARY_META_PREFIX = "avro.meta.binary.";
+
+  @Override
+  public RecordWriter<AvroWrapper<T>, NullWritable> getRecordWriter(FileSystem ignore, JobConf job, String name,
+                                                                  Progressable progress) throws IOException {
+    Path path = FileOutputFormat.getTaskOutputPath(job, name + AvroOutputFormat.EXT);
+    RecordWriter<AvroWrapper<T>, NullWritable> writer = new DeferredRecordWriter<T>(job, path);
+    int queueSize = job.getInt(ASYNC_QUEUE_SIZE_KEY, 0);
+    if (queueSize > 0) {
+      writer = new AsyncRecordWriter<AvroWrapper<T>, NullWritable>(writer, queueSize);
+    }
+    return writer;
+  }
+
+  /**
+   * Applies the compression, sync interval and metadata settings of the job to a writer, the way
+   * {@link AvroOutputFormat} does, so files written by this format are written like those of AvroOutputFormat.
+   *
+   * @param writer The writer, before it is created.
+   * @param job    The job configuration.
+   * @throws UnsupportedEncodingException
+   */
+  public static void configureDataFileWriter(DataFileWriter<?> writer, JobConf job)
+      throws UnsupportedEncodingException {
+    if (FileOutputFormat.getCompressOutput(job)) {
+      int level = job.getInt(AvroOutputFormat.DEFLATE_LEVEL_KEY, DEFAULT_DEFLATE_LEVEL);
+      String codecName = job.get(AvroJob.OUTPUT_CODEC, DataFileConstants.DEFLATE_CODEC);
+      CodecFactory factory = codecName.equals(DataFileConstants.DEFLATE_CODEC)
+          ? CodecFactory.deflateCodec(level)
+          : CodecFactory.fromString(codecName);
+      writer.setCodec(factory);
+    }
+    writer.setSyncInterval(job.getInt(SYNC_INTERVAL_KEY, DataFileConstants.DEFAULT_SYNC_INTERVAL));
+
+    // copy metadata from job
+    for (Map.Entry<String, String> e : job) {
+      if (e.getKey().startsWith(TEXT_META_PREFIX)) {
+        writer.setMeta(e.getKey().substring(TEXT_META_PREFIX.length()), e.getValue());
+      }
+      if (e.getKey().startsWith(BINARY_META_PREFIX)) {
+        writer.setMeta(e.getKey().substring(BINARY_META_PREFIX.length()),
+            URLDecoder.decode(e.getValue(), "ISO-8859-1").getBytes("ISO-8859-1"));
+      }
+    }
+  }
+
+  private static class DeferredRecordWriter<T extends GenericContainer>
+      implements RecordWriter<AvroWrapper<T>, NullWritable> {
+    private final JobConf job;
+    private final Path path;
+    private DataFileWriter<T> writer;
+
+    DeferredRecordWriter(JobConf job, Path path) throws IOException {
+      this.job = job;
+      this.path = path;
+      if (job.get(AvroJob.OUTPUT_SCHEMA) != null) {
+        writer = open(AvroJob.getOutputSchema(job));
+      }
+    }
+
+    public void write(AvroWrapper<T> wrapper, NullWritable ignore) throws IOException {
+      T datum = wrapper.datum();
+      if (writer == null) {
+        writer = open(datum.getSchema());
+      }
+      byte[] encoded = wrapper instanceof RawAvroWrapper ? ((RawAvroWrapper<T>) wrapper).getEncoded() : null;
+      if (encoded != null) {
+        writer.appendEncoded(ByteBuffer.wrap(encoded));
+      } else {
+        writer.append(datum);
+      }
+    }
+
+    public void close(Reporter reporter) throws IOException {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+
+    private DataFileWriter<T> open(Schema schema) throws IOException {
+      // writes generic as well as specific records
+      DatumWriter<T> datumWriter = new SpecificDatumWriter<T>(schema);
+      DataFileWriter<T> fileWriter = new DataFileWriter<T>(datumWriter);
+      configureDataFileWriter(fileWriter, job);
+      return fileWriter.create(schema, path.getFileSystem(job).create(path));
+    }
+  }
+}
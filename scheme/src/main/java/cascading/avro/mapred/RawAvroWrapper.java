@@ -0,0 +1,55 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import org.apache.avro.mapred.AvroWrapper;
+
+/**
+ * An AvroWrapper that carries the encoded form of its datum next to the datum itself. Output formats that know about
+ * it, like {@link DeferredAvroOutputFormat}, write the encoded bytes as they are instead of encoding the datum again;
+ * any other output format simply writes the datum.
+ *
+ * @param <T> The type of the datum.
+ */
+public class RawAvroWrapper<T> extends AvroWrapper<T> {
+
+  private byte[] encoded;
+
+  public RawAvroWrapper(T datum) {
+    this(datum, null);
+  }
+
+  /**
+   * @param datum   The datum.
+   * @param encoded The datum in Avro's binary encoding, in the schema the output is written with.
+   */
+  public RawAvroWrapper(T datum, byte[] encoded) {
+    super(datum);
+    this.encoded = encoded;
+  }
+
+  /**
+   * Returns the encoded datum, or null if there is none.
+   *
+   * @return byte[] The datum in Avro's binary encoding.
+   */
+  public byte[] getEncoded() {
+    return encoded;
+  }
+
+  public void setEncoded(byte[] encoded) {
+    this.encoded = encoded;
+  }
+}
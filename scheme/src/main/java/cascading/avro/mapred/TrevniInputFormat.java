@@ -0,0 +1,72 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.trevni.avro.AvroTrevniInputFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads Trevni files below the input paths at any depth. {@link org.apache.trevni.avro.AvroTrevniOutputFormat} writes
+ * a directory of files per task, which the stock input format doesn't descend into when it is given the output
+ * directory of a job. Only the columns of the job's input schema are read.
+ *
+ * @param <T> The type of the datums read.
+ */
+public class TrevniInputFormat<T> extends AvroTrevniInputFormat<T> {
+
+  /** The extension of Trevni files. */
+  public static final String EXT = ".trv";
+
+  private static final PathFilter HIDDEN_FILTER = new PathFilter() {
+    public boolean accept(Path path) {
+      String name = path.getName();
+      return !name.startsWith("_") && !name.startsWith(".");
+    }
+  };
+
+  @Override
+  protected FileStatus[] listStatus(JobConf job) throws IOException {
+    List<FileStatus> result = new ArrayList<FileStatus>();
+    for (Path path : getInputPaths(job)) {
+      FileSystem fs = path.getFileSystem(job);
+      FileStatus[] matches = fs.globStatus(path, HIDDEN_FILTER);
+      if (matches == null) {
+        throw new IOException("Input path does not exist: " + path);
+      }
+      for (FileStatus match : matches) {
+        addTrevniFiles(fs, match, result);
+      }
+    }
+    return result.toArray(new FileStatus[result.size()]);
+  }
+
+  private static void addTrevniFiles(FileSystem fs, FileStatus status, List<FileStatus> result) throws IOException {
+    if (status.isDir()) {
+      for (FileStatus child : fs.listStatus(status.getPath(), HIDDEN_FILTER)) {
+        addTrevniFiles(fs, child, result);
+      }
+    } else if (status.getPath().getName().endsWith(EXT)) {
+      result.add(status);
+    }
+  }
+}
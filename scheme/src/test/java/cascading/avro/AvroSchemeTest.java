@@ -16,9 +16,15 @@ package cascading.avro;
 
 import cascading.flow.Flow;
 import cascading.flow.FlowDef;
+import cascading.flow.FlowProcess;
 import cascading.flow.hadoop.HadoopFlowConnector;
 import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
 import cascading.operation.aggregator.Count;
+import cascading.operation.regex.RegexFilter;
 import cascading.operation.regex.RegexSplitGenerator;
 import cascading.pipe.Each;
 import cascading.pipe.Every;
@@ -34,9 +40,11 @@ import cascading.tuple.*;
 import junit.framework.Assert;
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.IndexedRecord;
 import org.apache.avro.generic.GenericData.Record;
 import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.util.Utf8;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.mapred.JobConf;
@@ -166,6 +174,102 @@ public class AvroSchemeTest extends Assert {
 
   }
 
+  @Test
+  public void testPackedSpecificRecords() throws Exception {
+    String out = tempDir.getRoot().toString() + "/packedSpecific/out";
+    Tap avroSink = new Lfs(new PackedAvroScheme<test2>(test2.class), out, SinkMode.REPLACE);
+    TupleEntryCollector write = avroSink.openForWrite(new HadoopFlowProcess());
+    for (int i = 0; i < 10; i++) {
+      nested inner = nested.newBuilder().setAnInnerField1(i).setAnInnerField2("inner " + i).build();
+      write.add(new Tuple(test2.newBuilder().setInnerRec(inner).setOuterField("outer " + i).build()));
+    }
+    write.close();
+
+    Tap avroSource = new Lfs(new PackedAvroScheme<test2>(test2.class), out);
+    TupleEntryIterator iterator = avroSource.openForRead(new HadoopFlowProcess());
+    int count = 0;
+    while (iterator.hasNext()) {
+      test2 record = (test2) iterator.next().getObject(0);
+      assertEquals(count, record.getInnerRec().getAnInnerField1().intValue());
+      assertEquals("inner " + count, record.getInnerRec().getAnInnerField2().toString());
+      assertEquals("outer " + count, record.getOuterField().toString());
+      count++;
+    }
+    iterator.close();
+    assertEquals(10, count);
+  }
+
+  @Test
+  public void testPackedRecordReuse() throws Exception {
+    String out = tempDir.getRoot().toString() + "/packedReuse/out";
+    Tap avroSink = new Lfs(new PackedAvroScheme<test2>(test2.class), out, SinkMode.REPLACE);
+    TupleEntryCollector write = avroSink.openForWrite(new HadoopFlowProcess());
+    for (int i = 0; i < 3; i++) {
+      nested inner = nested.newBuilder().setAnInnerField1(i).setAnInnerField2("inner " + i).build();
+      write.add(new Tuple(test2.newBuilder().setInnerRec(inner).setOuterField("outer " + i).build()));
+    }
+    write.close();
+
+    PackedAvroScheme<test2> scheme = new PackedAvroScheme<test2>(test2.class);
+    scheme.setReuseRecords(true);
+    TupleEntryIterator iterator = new Lfs(scheme, out).openForRead(new HadoopFlowProcess());
+    List<test2> copies = new ArrayList<test2>();
+    test2 previous = null;
+    while (iterator.hasNext()) {
+      test2 record = (test2) iterator.next().getObject(0);
+      if (previous != null) {
+        assertSame(previous, record);
+      }
+      previous = record;
+      copies.add(PackedAvroScheme.deepCopy(record));
+    }
+    iterator.close();
+
+    assertEquals(3, copies.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals("outer " + i, copies.get(i).getOuterField().toString());
+      assertEquals(i, copies.get(i).getInnerRec().getAnInnerField1().intValue());
+    }
+  }
+
+  @Test
+  public void testPackedRecordReuseAsyncSink() throws Exception {
+    String in = tempDir.getRoot().toString() + "/packedReuseAsync/in";
+    String out = tempDir.getRoot().toString() + "/packedReuseAsync/out";
+    TupleEntryCollector write = new Lfs(new PackedAvroScheme<test2>(test2.class), in, SinkMode.REPLACE)
+        .openForWrite(new HadoopFlowProcess());
+    for (int i = 0; i < 1000; i++) {
+      nested inner = nested.newBuilder().setAnInnerField1(i).setAnInnerField2("inner " + i).build();
+      write.add(new Tuple(test2.newBuilder().setInnerRec(inner).setOuterField("outer " + i).build()));
+    }
+    write.close();
+
+    PackedAvroScheme<test2> sourceScheme = new PackedAvroScheme<test2>(test2.class);
+    sourceScheme.setReuseRecords(true);
+    PackedAvroScheme<test2> sinkScheme = new PackedAvroScheme<test2>(test2.class);
+    sinkScheme.setAsyncSinkQueueSize(64);
+    new HadoopFlowConnector().connect(new Lfs(sourceScheme, in), new Lfs(sinkScheme, out), new Pipe("copy"))
+        .complete();
+
+    TupleEntryIterator iterator = new Lfs(new PackedAvroScheme<test2>(test2.class), out)
+        .openForRead(new HadoopFlowProcess());
+    int count = 0;
+    while (iterator.hasNext()) {
+      test2 record = (test2) iterator.next().getObject(0);
+      assertEquals("outer " + count, record.getOuterField().toString());
+      assertEquals(count, record.getInnerRec().getAnInnerField1().intValue());
+      assertEquals("inner " + count, record.getInnerRec().getAnInnerField2().toString());
+      count++;
+    }
+    iterator.close();
+    assertEquals(1000, count);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPackedSchemeRejectsGenericClass() {
+    new PackedAvroScheme<Record>(Record.class);
+  }
+
   @Test
   public void tupleInsideTupleTest() throws Exception {
     final Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream(
@@ -324,6 +428,363 @@ public class AvroSchemeTest extends Assert {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void testInferredSinkSchema() throws Exception {
+    final Fields testFields = new Fields("name", "count", "note");
+    final String in = tempDir.getRoot().toString() + "/testInferredSinkSchema/in";
+    final String out = tempDir.getRoot().toString() + "/testInferredSinkSchema/out";
+
+    Lfs lfsSource = new Lfs(new SequenceFile(testFields), in, SinkMode.REPLACE);
+    TupleEntryCollector write = lfsSource.openForWrite(new HadoopFlowProcess());
+    write.add(new Tuple("a", 1, null));
+    write.add(new Tuple("b", 5000000000L, "note"));
+    write.add(new Tuple(null, 3, null));
+    write.close();
+
+    AvroScheme sinkScheme = new AvroScheme();
+    sinkScheme.setSinkSchemaSampleSize(2);
+    Flow flow = new HadoopFlowConnector().connect(lfsSource, new Lfs(sinkScheme, out), new Pipe("infer"));
+    flow.complete();
+
+    AvroScheme sourceScheme = new AvroScheme();
+    TupleEntryIterator iterator = new Lfs(sourceScheme, out).openForRead(new HadoopFlowProcess());
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iterator.hasNext()) {
+      tuples.add(iterator.next().getTupleCopy());
+    }
+    iterator.close();
+
+    assertEquals(new Fields("name", "count", "note"), sourceScheme.getSourceFields());
+    assertEquals(3, tuples.size());
+    assertEquals(new Tuple("a", 1L, null), tuples.get(0));
+    assertEquals(new Tuple("b", 5000000000L, "note"), tuples.get(1));
+    assertEquals(new Tuple(null, 3L, null), tuples.get(2));
+  }
+
+  @Test
+  public void testTrevniProjection() throws Exception {
+    final Schema schema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"columns\", \"fields\":["
+        + "{\"name\":\"id\", \"type\":\"long\"},"
+        + "{\"name\":\"name\", \"type\":\"string\"},"
+        + "{\"name\":\"score\", \"type\":\"double\"}]}");
+    final Fields testFields = new Fields("id", "name", "score");
+    final String in = tempDir.getRoot().toString() + "/testTrevniProjection/in";
+    final String out = tempDir.getRoot().toString() + "/testTrevniProjection/out";
+
+    Lfs lfsSource = new Lfs(new SequenceFile(testFields), in, SinkMode.REPLACE);
+    TupleEntryCollector write = lfsSource.openForWrite(new HadoopFlowProcess());
+    write.add(new Tuple(1L, "one", 1.5));
+    write.add(new Tuple(2L, "two", 2.5));
+    write.close();
+
+    Flow flow = new HadoopFlowConnector().connect(lfsSource, new Lfs(new TrevniScheme(schema), out),
+        new Pipe("trevni"));
+    flow.complete();
+
+    TrevniScheme projected = new TrevniScheme(schema, new Fields("score", "id"));
+    TupleEntryIterator iterator = new Lfs(projected, out).openForRead(new HadoopFlowProcess());
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iterator.hasNext()) {
+      tuples.add(iterator.next().getTupleCopy());
+    }
+    iterator.close();
+
+    assertEquals(new Fields("score", "id"), projected.getSourceFields());
+    assertEquals(2, tuples.size());
+    assertEquals(new Tuple(1.5, 1L), tuples.get(0));
+    assertEquals(new Tuple(2.5, 2L), tuples.get(1));
+  }
+
+  @Test
+  public void testFlatten() throws Exception {
+    final Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream("test2.avsc"));
+    final Fields flatFields = new Fields("innerRec.anInnerField1", "innerRec.anInnerField2", "outerField");
+    final String in = tempDir.getRoot().toString() + "/testFlatten/in";
+    final String out = tempDir.getRoot().toString() + "/testFlatten/out";
+    final String trevni = tempDir.getRoot().toString() + "/testFlatten/trevni";
+
+    Lfs lfsSource = new Lfs(new SequenceFile(flatFields), in, SinkMode.REPLACE);
+    TupleEntryCollector write = lfsSource.openForWrite(new HadoopFlowProcess());
+    for (int i = 0; i < 3; i++) {
+      write.add(new Tuple(i, "inner " + i, "outer " + i));
+    }
+    write.close();
+
+    AvroScheme flatSink = new AvroScheme(schema);
+    flatSink.setFlatten(true);
+    assertEquals(flatFields, flatSink.getSinkFields());
+    new HadoopFlowConnector().connect(lfsSource, new Lfs(flatSink, out), new Pipe("flatten")).complete();
+
+    // written as nested records
+    TupleEntryIterator iterator = new Lfs(new AvroScheme(schema), out).openForRead(new HadoopFlowProcess());
+    assertTrue(iterator.hasNext());
+    TupleEntry nested = iterator.next();
+    assertEquals(new Tuple(0, "inner 0"), nested.getObject("innerRec"));
+    assertEquals("outer 0", nested.getObject("outerField"));
+    iterator.close();
+
+    // and read back flat, with the schema taken from the files
+    AvroScheme flatSource = new AvroScheme();
+    flatSource.setFlatten(true);
+    iterator = new Lfs(flatSource, out).openForRead(new HadoopFlowProcess());
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iterator.hasNext()) {
+      tuples.add(iterator.next().getTupleCopy());
+    }
+    iterator.close();
+    assertEquals(flatFields, flatSource.getSourceFields());
+    assertEquals(3, tuples.size());
+    assertEquals(new Tuple(2, "inner 2", "outer 2"), tuples.get(2));
+
+    // nested fields can be projected by their path
+    TrevniScheme trevniSink = new TrevniScheme(schema);
+    trevniSink.setFlatten(true);
+    new HadoopFlowConnector().connect(lfsSource, new Lfs(trevniSink, trevni), new Pipe("trevni")).complete();
+    TrevniScheme projected = new TrevniScheme(schema, new Fields("outerField", "innerRec.anInnerField2"));
+    iterator = new Lfs(projected, trevni).openForRead(new HadoopFlowProcess());
+    assertTrue(iterator.hasNext());
+    assertEquals(new Tuple("outer 0", "inner 0"), iterator.next().getTupleCopy());
+    iterator.close();
+    assertEquals(new Fields("outerField", "innerRec.anInnerField2"), projected.getSourceFields());
+
+    // a nested field can't be read as a top level one
+    TrevniScheme unflattened = new TrevniScheme(schema, new Fields("outerField", "innerRec.anInnerField2"));
+    unflattened.setFlatten(false);
+    try {
+      unflattened.retrieveSourceFields(new HadoopFlowProcess(), new Lfs(unflattened, trevni));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("innerRec.anInnerField2"));
+    }
+  }
+
+  @Test
+  public void testAsyncSink() throws Exception {
+    final Schema schema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"async\", \"fields\":["
+        + "{\"name\":\"id\", \"type\":\"long\"},"
+        + "{\"name\":\"name\", \"type\":\"string\"}]}");
+    final Fields fields = new Fields("id", "name");
+    final String in = tempDir.getRoot().toString() + "/testAsyncSink/in";
+    final String out = tempDir.getRoot().toString() + "/testAsyncSink/out";
+
+    Lfs lfsSource = new Lfs(new SequenceFile(fields), in, SinkMode.REPLACE);
+    TupleEntryCollector write = lfsSource.openForWrite(new HadoopFlowProcess());
+    for (long i = 0; i < 1000; i++) {
+      write.add(new Tuple(i, "name-" + i));
+    }
+    write.close();
+
+    AvroScheme sinkScheme = new AvroScheme(schema);
+    sinkScheme.setAsyncSinkQueueSize(16);
+    Flow flow = new HadoopFlowConnector().connect(lfsSource, new Lfs(sinkScheme, out), new Pipe("async"));
+    flow.complete();
+
+    TupleEntryIterator iterator = new Lfs(new AvroScheme(schema), out).openForRead(new HadoopFlowProcess());
+    long count = 0;
+    while (iterator.hasNext()) {
+      TupleEntry entry = iterator.next();
+      assertEquals(count, entry.getLong("id"));
+      assertEquals("name-" + count, entry.getString("name"));
+      count++;
+    }
+    iterator.close();
+    assertEquals(1000, count);
+  }
+
+  @Test
+  public void testAsyncSinkCopiesReusedBytes() throws Exception {
+    final Schema schema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"reused\", \"fields\":["
+        + "{\"name\":\"id\", \"type\":\"long\"},"
+        + "{\"name\":\"data\", \"type\":\"bytes\"}]}");
+    final String in = tempDir.getRoot().toString() + "/testAsyncSinkCopiesReusedBytes/in";
+    final String out = tempDir.getRoot().toString() + "/testAsyncSinkCopiesReusedBytes/out";
+
+    Lfs lfsSource = new Lfs(new SequenceFile(new Fields("id")), in, SinkMode.REPLACE);
+    TupleEntryCollector write = lfsSource.openForWrite(new HadoopFlowProcess());
+    for (long i = 0; i < 1000; i++) {
+      write.add(new Tuple(i));
+    }
+    write.close();
+
+    AvroScheme sinkScheme = new AvroScheme(schema);
+    sinkScheme.setAsyncSinkQueueSize(16);
+    Pipe pipe = new Each(new Pipe("reused"), new Fields("id"), new ReusedBytes(), Fields.RESULTS);
+    new HadoopFlowConnector().connect(lfsSource, new Lfs(sinkScheme, out), pipe).complete();
+
+    TupleEntryIterator iterator = new Lfs(new AvroScheme(schema), out).openForRead(new HadoopFlowProcess());
+    long count = 0;
+    while (iterator.hasNext()) {
+      TupleEntry entry = iterator.next();
+      assertEquals(count, entry.getLong("id"));
+      assertEquals(new BytesWritable(("data-" + count).getBytes("UTF-8")), entry.getObject("data"));
+      count++;
+    }
+    iterator.close();
+    assertEquals(1000, count);
+  }
+
+  /**
+   * Emits the id with its data in one BytesWritable that is overwritten for every tuple.
+   */
+  private static class ReusedBytes extends BaseOperation<BytesWritable> implements Function<BytesWritable> {
+    ReusedBytes() {
+      super(new Fields("id", "data"));
+    }
+
+    @Override
+    public void prepare(FlowProcess flowProcess, OperationCall<BytesWritable> operationCall) {
+      operationCall.setContext(new BytesWritable());
+    }
+
+    @Override
+    public void operate(FlowProcess flowProcess, FunctionCall<BytesWritable> functionCall) {
+      long id = functionCall.getArguments().getLong(0);
+      byte[] data = ("data-" + id).getBytes();
+      functionCall.getContext().set(data, 0, data.length);
+      functionCall.getOutputCollector().add(new Tuple(id, functionCall.getContext()));
+    }
+  }
+
+  @Test
+  public void testReadsOlderSchemaVersions() throws Exception {
+    final Schema oldSchema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"versioned\", \"fields\":["
+        + "{\"name\":\"id\", \"type\":\"int\"},"
+        + "{\"name\":\"name\", \"type\":\"string\"}]}");
+    // the fields are reordered, id is promoted to long and tag is added with a default
+    final Schema newSchema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"versioned\", \"fields\":["
+        + "{\"name\":\"name\", \"type\":\"string\"},"
+        + "{\"name\":\"id\", \"type\":\"long\"},"
+        + "{\"name\":\"tag\", \"type\":\"string\", \"default\":\"none\"}]}");
+    final File in = new File(tempDir.getRoot(), "testReadsOlderSchemaVersions/in");
+    in.mkdirs();
+
+    DataFileWriter<Record> writer = new DataFileWriter<Record>(new GenericDatumWriter<Record>(oldSchema));
+    writer.create(oldSchema, new File(in, "part-00000.avro"));
+    for (int i = 0; i < 10; i++) {
+      Record record = new Record(oldSchema);
+      record.put("id", i);
+      record.put("name", "old-" + i);
+      writer.append(record);
+    }
+    writer.close();
+    writer = new DataFileWriter<Record>(new GenericDatumWriter<Record>(newSchema));
+    writer.create(newSchema, new File(in, "part-00001.avro"));
+    for (long i = 10; i < 20; i++) {
+      Record record = new Record(newSchema);
+      record.put("name", "new-" + i);
+      record.put("id", i);
+      record.put("tag", "tagged");
+      writer.append(record);
+    }
+    writer.close();
+
+    for (int readAheadBlocks = 0; readAheadBlocks <= 2; readAheadBlocks += 2) {
+      // the stock input format, and the block reader
+      AvroScheme sourceScheme = new AvroScheme(newSchema);
+      sourceScheme.setReadAheadBlocks(readAheadBlocks);
+      String out = tempDir.getRoot().toString() + "/testReadsOlderSchemaVersions/out" + readAheadBlocks;
+      new HadoopFlowConnector().connect(new Lfs(sourceScheme, in.toString()), new Lfs(new AvroScheme(newSchema), out),
+          new Pipe("versions")).complete();
+
+      TupleEntryIterator iterator = new Lfs(new AvroScheme(newSchema), out).openForRead(new HadoopFlowProcess());
+      Map<Long, TupleEntry> entries = new TreeMap<Long, TupleEntry>();
+      while (iterator.hasNext()) {
+        TupleEntry next = iterator.next();
+        TupleEntry entry = new TupleEntry(next.getFields(), next.getTupleCopy());
+        entries.put(entry.getLong("id"), entry);
+      }
+      iterator.close();
+      assertEquals(20, entries.size());
+      for (long i = 0; i < 20; i++) {
+        TupleEntry entry = entries.get(i);
+        assertTrue(entry.getObject("id") instanceof Long);
+        assertEquals((i < 10 ? "old-" : "new-") + i, entry.getString("name"));
+        assertEquals(i < 10 ? "none" : "tagged", entry.getString("tag"));
+      }
+    }
+  }
+
+  @Test
+  public void testRawPassthrough() throws Exception {
+    final Schema schema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"raw\", \"fields\":["
+        + "{\"name\":\"id\", \"type\":\"long\"},"
+        + "{\"name\":\"name\", \"type\":\"string\"}]}");
+    final String in = tempDir.getRoot().toString() + "/testRawPassthrough/in";
+    final String out = tempDir.getRoot().toString() + "/testRawPassthrough/out";
+
+    Lfs source = new Lfs(new AvroScheme(schema), in, SinkMode.REPLACE);
+    TupleEntryCollector write = source.openForWrite(new HadoopFlowProcess());
+    for (long i = 0; i < 100; i++) {
+      write.add(new Tuple(i, (i % 2 == 0 ? "even-" : "odd-") + i));
+    }
+    write.close();
+
+    AvroScheme sourceScheme = new AvroScheme(schema);
+    sourceScheme.setRawPassthrough(true);
+    AvroScheme sinkScheme = new AvroScheme(schema);
+    sinkScheme.setRawPassthrough(true);
+    Pipe pipe = new Each(new Pipe("passthrough"), new Fields("name"), new RegexFilter("even"));
+    Flow flow = new HadoopFlowConnector().connect(new Lfs(sourceScheme, in), new Lfs(sinkScheme, out), pipe);
+    flow.complete();
+
+    TupleEntryIterator iterator = new Lfs(new AvroScheme(schema), out).openForRead(new HadoopFlowProcess());
+    long count = 0;
+    while (iterator.hasNext()) {
+      TupleEntry entry = iterator.next();
+      assertEquals(count * 2, entry.getLong("id"));
+      assertEquals("even-" + count * 2, entry.getString("name"));
+      count++;
+    }
+    iterator.close();
+    assertEquals(50, count);
+    // none of the records was converted back from its tuple
+    assertEquals(50, flow.getFlowStats().getCounterValue(AvroScheme.Counters.RAW_PASSTHROUGH_RECORDS));
+  }
+
+  @Test
+  public void testCountScheme() throws Exception {
+    final Schema schema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"counted\", \"fields\":["
+        + "{\"name\":\"id\", \"type\":\"long\"}]}");
+    final String out = tempDir.getRoot().toString() + "/testCountScheme/out";
+
+    Lfs sink = new Lfs(new AvroScheme(schema), out, SinkMode.REPLACE);
+    TupleEntryCollector write = sink.openForWrite(new HadoopFlowProcess());
+    for (long i = 0; i < 500; i++) {
+      write.add(new Tuple(i));
+    }
+    write.close();
+
+    TupleEntryIterator iterator = new Lfs(new AvroCountScheme(), out).openForRead(new HadoopFlowProcess());
+    long count = 0;
+    while (iterator.hasNext()) {
+      TupleEntry entry = iterator.next();
+      assertTrue(entry.getString("path").endsWith(".avro"));
+      count += entry.getLong("count");
+    }
+    iterator.close();
+    assertEquals(500, count);
+    assertTrue(new AvroCountScheme().isSource());
+    assertFalse(new AvroCountScheme().isSink());
+  }
+
+  @Test
+  public void testSerializationWithoutSchema() throws Exception {
+    final AvroScheme expected = new AvroScheme();
+    expected.setSinkSchemaSampleSize(10);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bytes);
+    oos.writeObject(expected);
+    oos.close();
+
+    final ObjectInputStream iis = new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()));
+    final AvroScheme actual = (AvroScheme) iis.readObject();
+
+    assertNull(actual.schema);
+    assertEquals(10, actual.sinkSchemaSampleSize);
+  }
+
 
   @Test
   public void testSchemeChecks() {
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Parser;
 import org.apache.avro.generic.GenericArray;
@@ -35,6 +36,8 @@ import org.hamcrest.core.IsNull;
 import org.junit.Before;
 import org.junit.Test;
 
+import cascading.tuple.Tuple;
+
 public class AvroToCascadingTest {
 
     Record record = null;
@@ -117,6 +120,51 @@ public class AvroToCascadingTest {
         assertThat(outMap.get("map1").get("one"), is(1L));
     }
 
+    @Test
+    public void testFromArrayLazy() {
+        AvroToCascading.Options options = new AvroToCascading.Options();
+        options.setLazyCollections(true);
+        Schema outerSchema = Schema.createArray(Schema.create(Schema.Type.STRING));
+        GenericArray<Utf8> array = new GenericData.Array<Utf8>(2, outerSchema);
+        array.add(new Utf8("zero"));
+        array.add(new Utf8("one"));
+
+        List<String> outList = (List<String>) AvroToCascading.fromAvro(array, outerSchema, options);
+
+        assertThat(outList.size(), is(2));
+        assertThat(outList.get(1), is("one"));
+        assertThat(outList.get(1), sameInstance(outList.get(1)));
+        assertThat(outList.get(0), is("zero"));
+    }
+
+    @Test
+    public void testFromMapLazy() {
+        AvroToCascading.Options options = new AvroToCascading.Options();
+        options.setLazyCollections(true);
+        Schema fieldSchema = record.getSchema().getField("aMap").schema();
+
+        Map<String, Integer> outMap = (Map<String, Integer>) AvroToCascading.fromAvro(record.get(9), fieldSchema,
+                options);
+
+        assertThat(outMap.size(), is(2));
+        assertThat(outMap.get("one"), is(1));
+        assertThat(outMap.get("two"), is(2));
+        assertThat(outMap.get("three"), nullValue());
+        assertThat(outMap.containsKey("two"), is(true));
+        assertThat(outMap.keySet().contains("one"), is(true));
+    }
+
+    @Test
+    public void testFromStringAsUtf8() {
+        AvroToCascading.Options options = new AvroToCascading.Options();
+        options.setStringType(GenericData.StringType.Utf8);
+        Utf8 utf8 = new Utf8("This is my string");
+        Schema stringSchema = Schema.create(Schema.Type.STRING);
+
+        assertThat(AvroToCascading.fromAvro(utf8, stringSchema, options), sameInstance((Object) utf8));
+        assertThat(AvroToCascading.fromAvro(utf8, stringSchema), is((Object) "This is my string"));
+    }
+
     @Test
     public void testFromBytes() {
         Schema fieldSchema = record.getSchema().getField("aBytes").schema();
@@ -128,6 +176,33 @@ public class AvroToCascadingTest {
         assertThat(outBytes, is(result));
     }
 
+    @Test
+    public void testFromBytesSlice() {
+        Schema bytesSchema = Schema.create(Schema.Type.BYTES);
+        byte[] buffer_value = { 0, 1, 2, 3, 4, 5, 6 };
+
+        BytesWritable front = (BytesWritable) AvroToCascading.fromAvro(ByteBuffer.wrap(buffer_value, 0, 3), bytesSchema);
+        BytesWritable middle = (BytesWritable) AvroToCascading.fromAvro(ByteBuffer.wrap(buffer_value, 2, 3), bytesSchema);
+
+        assertThat(front, is(new BytesWritable(new byte[] { 0, 1, 2 })));
+        assertThat(front.getBytes(), sameInstance(buffer_value));
+        assertThat(middle, is(new BytesWritable(new byte[] { 2, 3, 4 })));
+    }
+
+    @Test
+    public void testFromBytesAsByteBuffer() {
+        AvroToCascading.Options options = new AvroToCascading.Options();
+        options.setBytesType(AvroToCascading.BytesType.ByteBuffer);
+        Schema bytesSchema = Schema.create(Schema.Type.BYTES);
+        byte[] buffer_value = { 0, 1, 2, 3, 4, 5, 6 };
+
+        ByteBuffer outBytes = (ByteBuffer) AvroToCascading.fromAvro(ByteBuffer.wrap(buffer_value, 2, 3), bytesSchema,
+                options);
+
+        assertThat(outBytes, is(ByteBuffer.wrap(new byte[] { 2, 3, 4 })));
+        assertThat(outBytes.array(), sameInstance(buffer_value));
+    }
+
     @Test
     public void testFromFixed() {
         Schema fieldSchema = record.getSchema().getField("aFixed").schema();
@@ -147,6 +222,29 @@ public class AvroToCascadingTest {
         assertThat(outInt, is(5));
     }
 
+    @Test
+    public void testFromMultiBranchUnion() {
+        Schema unionSchema = new Schema.Parser().parse("[\"null\", \"string\", \"long\", \"double\"]");
+
+        assertThat(AvroToCascading.fromAvro(null, unionSchema), nullValue());
+        assertThat((String) AvroToCascading.fromAvro(new Utf8("a string"), unionSchema), is("a string"));
+        assertThat((Long) AvroToCascading.fromAvro(5L, unionSchema), is(5L));
+        assertThat((Double) AvroToCascading.fromAvro(1.5, unionSchema), is(1.5));
+    }
+
+    @Test
+    public void testFromUnionOfRecords() {
+        Schema unionSchema = new Schema.Parser().parse("[\"null\", "
+                + "{\"type\":\"record\", \"name\":\"first\", \"fields\":[{\"name\":\"a\", \"type\":\"int\"}]}, "
+                + "{\"type\":\"record\", \"name\":\"second\", \"fields\":[{\"name\":\"b\", \"type\":\"string\"}]}]");
+        Record second = new Record(unionSchema.getTypes().get(2));
+        second.put(0, new Utf8("the string"));
+
+        Tuple outTuple = (Tuple) AvroToCascading.fromAvro(second, unionSchema);
+
+        assertThat(outTuple.getString(0), is("the string"));
+    }
+
     @Test
     public void testParseRecord() {
         byte[] buffer_value = { 0, 1, 2, 3, 0, 0, 0 };
@@ -172,6 +270,67 @@ public class AvroToCascadingTest {
         assertThat((Integer) output[10], is(5));
     }
 
+    @Test
+    public void testParseRecordWithEvolvedSchema() {
+        Schema writerSchema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"evolved\", \"fields\":["
+                + "{\"name\":\"count\", \"type\":\"int\"},"
+                + "{\"name\":\"label\", \"type\":\"string\"},"
+                + "{\"name\":\"dropped\", \"type\":\"boolean\"}]}");
+        Schema readerSchema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"evolved\", \"fields\":["
+                + "{\"name\":\"name\", \"type\":\"string\", \"aliases\":[\"label\"]},"
+                + "{\"name\":\"count\", \"type\":\"long\"},"
+                + "{\"name\":\"tags\", \"type\":{\"type\":\"array\", \"items\":\"string\"}, \"default\":[\"none\"]},"
+                + "{\"name\":\"ratio\", \"type\":[\"null\", \"double\"], \"default\":null}]}");
+        Record rec = new Record(writerSchema);
+        rec.put(0, 3);
+        rec.put(1, new Utf8("three"));
+        rec.put(2, true);
+
+        Object[] output = AvroToCascading.parseRecord(rec, readerSchema);
+
+        assertThat(output.length, is(4));
+        assertThat((String) output[0], is("three"));
+        assertThat(output[1], is((Object) 3L));
+        assertThat((List<String>) output[2], contains("none"));
+        assertThat(output[3], nullValue());
+
+        IndexedRecordTuple tuple = new IndexedRecordTuple(readerSchema, new AvroToCascading.Options());
+        tuple.reset(rec);
+        assertThat(tuple.getObject(1), is((Object) 3L));
+        assertThat(tuple.getString(0), is("three"));
+    }
+
+    @Test(expected = AvroRuntimeException.class)
+    public void testParseRecordMissingFieldWithoutDefault() {
+        Schema readerSchema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"test5\", \"fields\":["
+                + "{\"name\":\"notInWriter\", \"type\":\"int\"}]}");
+
+        AvroToCascading.parseRecord(record, readerSchema);
+    }
+
+    @Test
+    public void testLazyTuple() {
+        AvroToCascading.Options options = new AvroToCascading.Options();
+        IndexedRecordTuple tuple = new IndexedRecordTuple(record.getSchema(), options);
+        tuple.reset(record);
+
+        assertThat(tuple.size(), is(11));
+        assertThat(tuple.getString(5), is("This is my string"));
+        assertThat(tuple.getObject(5), sameInstance(tuple.getObject(5)));
+        assertThat((Integer) tuple.getObject(10), is(5));
+
+        tuple.set(1, 42);
+        assertThat((Integer) tuple.getObject(1), is(42));
+        tuple.add("appended");
+        assertThat(tuple.size(), is(12));
+        assertThat(tuple.getString(11), is("appended"));
+        assertThat((Integer) tuple.getObject(1), is(42));
+
+        tuple.reset(record);
+        assertThat(tuple.size(), is(11));
+        assertThat((Integer) tuple.getObject(1), is(10));
+    }
+
     @Test
     public void testNullFieldValue() {
     	String schemaStr = "{" +  	
@@ -18,12 +18,15 @@ import static org.junit.Assert.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
 import org.apache.avro.Schema.Parser;
@@ -32,6 +35,7 @@ import org.apache.avro.generic.GenericArray;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericData.Fixed;
 import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.util.Utf8;
 import org.apache.hadoop.io.BytesWritable;
 import org.hamcrest.core.IsNull;
 import org.junit.Before;
@@ -158,6 +162,24 @@ public class CascadingToAvroTest {
         assertThat(outMap.get("map1").get("one"), is(1L));
     }
 
+    @Test
+    public void testToStringFromUtf8() {
+        Utf8 utf8 = new Utf8("This is my string");
+        Schema stringSchema = Schema.create(Schema.Type.STRING);
+
+        assertThat(CascadingToAvro.toAvro(utf8, stringSchema), sameInstance((Object) utf8));
+    }
+
+    @Test
+    public void testFromTupleWithUtf8KeysToMap() {
+        Schema fieldSchema = schema.getField("aMap").schema();
+        Tuple tuple = new Tuple(new Utf8("one"), 1);
+
+        Map<String, Integer> outMap = (Map<String, Integer>) CascadingToAvro.toAvro(tuple, fieldSchema);
+
+        assertThat(outMap.get("one"), is(1));
+    }
+
     @Test
     public void testFromBytes() {
         Schema fieldSchema = schema.getField("aBytes").schema();
@@ -169,6 +191,24 @@ public class CascadingToAvroTest {
         assertThat(outBytes, is(result));
     }
 
+    @Test
+    public void testFromBytesWithSpareCapacity() {
+        Schema fieldSchema = schema.getField("aBytes").schema();
+        BytesWritable bytesWritable = new BytesWritable();
+        bytesWritable.set(new byte[] { 1, 2, 3 }, 0, 3);
+
+        ByteBuffer outBytes = (ByteBuffer) CascadingToAvro.toAvro(bytesWritable, fieldSchema);
+
+        assertThat(outBytes, is(ByteBuffer.wrap(new byte[] { 1, 2, 3 })));
+        assertThat(outBytes.array(), sameInstance(bytesWritable.getBytes()));
+    }
+
+    @Test(expected = AvroRuntimeException.class)
+    public void testFromFixedWithWrongLength() {
+        Schema fieldSchema = schema.getField("aFixed").schema();
+        CascadingToAvro.toAvro(new BytesWritable(new byte[] { 1, 2, 3 }), fieldSchema);
+    }
+
     @Test
     public void testFromFixed() {
         Schema fieldSchema = schema.getField("aFixed").schema();
@@ -187,6 +227,74 @@ public class CascadingToAvroTest {
         assertThat(outInt, is(5));
     }
 
+    @Test
+    public void testToMultiBranchUnion() {
+        Schema unionSchema = new Schema.Parser().parse("[\"null\", \"string\", \"long\", \"double\"]");
+
+        assertThat(CascadingToAvro.toAvro(null, unionSchema), nullValue());
+        assertThat((String) CascadingToAvro.toAvro("a string", unionSchema), is("a string"));
+        assertThat((Long) CascadingToAvro.toAvro(5L, unionSchema), is(5L));
+        assertThat((Double) CascadingToAvro.toAvro(1.5, unionSchema), is(1.5));
+        // there is no int branch, so an Integer is promoted to the long branch
+        assertThat((Long) CascadingToAvro.toAvro(5, unionSchema), is(5L));
+    }
+
+    @Test
+    public void testToUnionOfComplexTypes() {
+        Schema unionSchema = new Schema.Parser().parse("[\"null\", {\"type\":\"array\", \"items\":\"int\"}, "
+                + "{\"type\":\"map\", \"values\":\"int\"}]");
+        List<Integer> list = new ArrayList<Integer>();
+        list.add(1);
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        map.put("one", 1);
+
+        assertThat(CascadingToAvro.toAvro(list, unionSchema), instanceOf(GenericData.Array.class));
+        assertThat(((Map<String, Integer>) CascadingToAvro.toAvro(map, unionSchema)).get("one"), is(1));
+    }
+
+    @Test(expected = AvroRuntimeException.class)
+    public void testToUnionWithoutMatchingBranch() {
+        Schema unionSchema = new Schema.Parser().parse("[\"null\", \"string\", \"long\"]");
+        CascadingToAvro.toAvro(true, unionSchema);
+    }
+
+    @Test(expected = AvroRuntimeException.class)
+    public void testToUnionDoesNotTruncateFractions() {
+        Schema unionSchema = new Schema.Parser().parse("[\"null\", \"string\", \"long\"]");
+        CascadingToAvro.toAvro(1.5, unionSchema);
+    }
+
+    @Test
+    public void testToUnionOfBigNumbers() {
+        Schema unionSchema = new Schema.Parser().parse("[\"null\", \"string\", \"long\", \"double\"]");
+
+        assertThat((Long) CascadingToAvro.toAvro(BigInteger.valueOf(5), unionSchema), is(5L));
+        assertThat((Long) CascadingToAvro.toAvro(new BigDecimal("5.00"), unionSchema), is(5L));
+        assertThat((Double) CascadingToAvro.toAvro(new BigDecimal("1.5"), unionSchema), is(1.5));
+        // the same class resolves by value each time
+        assertThat((Long) CascadingToAvro.toAvro(new BigDecimal("7"), unionSchema), is(7L));
+
+        Schema longUnion = new Schema.Parser().parse("[\"null\", \"string\", \"long\"]");
+        try {
+            CascadingToAvro.toAvro(new BigDecimal("1.5"), longUnion);
+            fail();
+        } catch (AvroRuntimeException e) {
+            // would be truncated
+        }
+        try {
+            CascadingToAvro.toAvro(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE), longUnion);
+            fail();
+        } catch (AvroRuntimeException e) {
+            // would wrap around
+        }
+        try {
+            CascadingToAvro.toAvro(1.5, new Schema.Parser().parse("[\"null\", \"long\"]"));
+            fail();
+        } catch (AvroRuntimeException e) {
+            // the only branch can't hold it either
+        }
+    }
+
     @Test
     public void testParseTupleEntry() {
         byte[] buffer_value = { 0, 1, 2, 3, 0, 0, 0 };
@@ -251,4 +359,29 @@ public class CascadingToAvroTest {
         assertThat(outSchema, is(expected));
     }
 
+    @Test
+    public void testGenerateSchemaFromTupleEntries() {
+        Fields fields = new Fields("anInt", "aNumber", "aList", "alwaysNull");
+        List<TupleEntry> entries = new ArrayList<TupleEntry>();
+        entries.add(new TupleEntry(fields, new Tuple(1, 2, new Tuple(), null)));
+        entries.add(new TupleEntry(fields, new Tuple(null, 2.5, new Tuple(1, 2), null)));
+        entries.add(new TupleEntry(fields, new Tuple(3, 7L, new Tuple(3L), null)));
+        Schema expected = new Schema.Parser()
+                .parse("{\"type\":\"record\",\"name\":\"CascadingRecord\",\"doc\":\"auto-generated by cascading.avro\",\"fields\":[{\"name\":\"anInt\",\"type\":[\"null\",\"int\"]},{\"name\":\"aNumber\",\"type\":[\"null\",\"double\"]},{\"name\":\"aList\",\"type\":[\"null\",{\"type\":\"array\",\"items\":\"long\"}]},{\"name\":\"alwaysNull\",\"type\":[\"null\",\"string\"]}]}");
+
+        Schema outSchema = CascadingToAvro.generateAvroSchemaFromTupleEntries(entries, "CascadingRecord");
+
+        assertThat(outSchema, is(expected));
+    }
+
+    @Test(expected = AvroRuntimeException.class)
+    public void testGenerateSchemaFromIncompatibleTupleEntries() {
+        Fields fields = new Fields("aField");
+        List<TupleEntry> entries = new ArrayList<TupleEntry>();
+        entries.add(new TupleEntry(fields, new Tuple(1)));
+        entries.add(new TupleEntry(fields, new Tuple("one")));
+
+        CascadingToAvro.generateAvroSchemaFromTupleEntries(entries, "CascadingRecord");
+    }
+
 }
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cascading.avro;
+
+import static org.junit.Assert.*;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+public class RecordFlattenerTest {
+
+    private static final String SCHEMA = "{\"type\":\"record\", \"name\":\"outer\", \"fields\":["
+            + "{\"name\":\"id\", \"type\":\"long\"},"
+            + "{\"name\":\"inner\", \"type\":{\"type\":\"record\", \"name\":\"inner\", \"fields\":["
+            + "{\"name\":\"a\", \"type\":\"string\"}, {\"name\":\"b\", \"type\":\"int\"}]}},"
+            + "{\"name\":\"optional\", \"type\":[\"null\", {\"type\":\"record\", \"name\":\"optional\", \"fields\":["
+            + "{\"name\":\"c\", \"type\":\"long\"}]}]}]}";
+
+    private final AvroToCascading.Options options = new AvroToCascading.Options();
+
+    @Test
+    public void testFields() {
+        RecordFlattener flattener = new RecordFlattener(new Schema.Parser().parse(SCHEMA));
+        assertEquals(new Fields("id", "inner.a", "inner.b", "optional.c"), flattener.getFields());
+    }
+
+    @Test
+    public void testFlattenRecordOfAnotherSchemaInstance() {
+        RecordFlattener flattener = new RecordFlattener(new Schema.Parser().parse(SCHEMA));
+        // as in a task, where records carry the schema of the file they were read from
+        Schema schema = new Schema.Parser().parse(SCHEMA);
+
+        Tuple tuple = new Tuple();
+        flattener.flatten(record(schema, 1, "one", 10, 100L), tuple, options);
+        assertEquals(new Tuple(1L, "one", 10, 100L), tuple);
+
+        tuple = new Tuple();
+        flattener.flatten(record(schema, 2, "two", 20, null), tuple, options);
+        assertEquals(new Tuple(2L, "two", 20, null), tuple);
+    }
+
+    @Test
+    public void testFlattenRecordOfOtherLayout() {
+        RecordFlattener flattener = new RecordFlattener(new Schema.Parser().parse(SCHEMA));
+        // reordered fields, and no optional record at all
+        Schema schema = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"outer\", \"fields\":["
+                + "{\"name\":\"inner\", \"type\":{\"type\":\"record\", \"name\":\"inner\", \"fields\":["
+                + "{\"name\":\"b\", \"type\":\"int\"}, {\"name\":\"a\", \"type\":\"string\"}]}},"
+                + "{\"name\":\"id\", \"type\":\"long\"}]}");
+        Record inner = new Record(schema.getField("inner").schema());
+        inner.put("b", 30);
+        inner.put("a", new Utf8("three"));
+        Record record = new Record(schema);
+        record.put("inner", inner);
+        record.put("id", 3L);
+
+        for (int i = 0; i < 2; i++) {
+            Tuple tuple = new Tuple();
+            flattener.flatten(record, tuple, options);
+            assertEquals(new Tuple(3L, "three", 30, null), tuple);
+        }
+        // and back to records of the flattener's own layout
+        Tuple tuple = new Tuple();
+        flattener.flatten(record(new Schema.Parser().parse(SCHEMA), 4, "four", 40, 400L), tuple, options);
+        assertEquals(new Tuple(4L, "four", 40, 400L), tuple);
+    }
+
+    @Test
+    public void testUnflatten() {
+        Schema schema = new Schema.Parser().parse(SCHEMA);
+        RecordFlattener flattener = new RecordFlattener(schema);
+        assertEquals(record(schema, 1, "one", 10, 100L), flattener.unflatten(new Tuple(1L, "one", 10, 100L)));
+        assertEquals(record(schema, 2, "two", 20, null), flattener.unflatten(new Tuple(2L, "two", 20, null)));
+    }
+
+    private static Record record(Schema schema, long id, String a, int b, Long c) {
+        Record inner = new Record(schema.getField("inner").schema());
+        inner.put("a", new Utf8(a));
+        inner.put("b", b);
+        Record record = new Record(schema);
+        record.put("id", id);
+        record.put("inner", inner);
+        if (c != null) {
+            Record optional = new Record(schema.getField("optional").schema().getTypes().get(1));
+            optional.put("c", c);
+            record.put("optional", optional);
+        }
+        return record;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cascading.avro.benchmark;
+
+import cascading.avro.AvroScheme;
+import cascading.flow.Flow;
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowConnector;
+import cascading.operation.BaseOperation;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
+import cascading.operation.Identity;
+import cascading.operation.aggregator.Count;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.scheme.hadoop.SequenceFile;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tap.hadoop.Lfs;
+import cascading.tuple.Fields;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.file.CodecFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * End-to-end throughput benchmark for {@link AvroScheme}. A synthetic dataset is generated from an Avro schema and
+ * read-only, filter, aggregate and rewrite flows are run over it in Hadoop local mode. Every run is reported as one
+ * JSON object per line so results from different releases can be compared mechanically.
+ * <p/>
+ * Usage: {@code AvroSchemeBenchmark [--schema test1.avsc] [--records 100000] [--codec deflate] [--runs 3]
+ * [--seed 42] [--workdir target/benchmark] [--out target/benchmark/results.json]}
+ * <p/>
+ * The schema is either a file path or the name of one of the test schemas under {@code cascading/avro}. From Maven
+ * run {@code mvn -Pbenchmark test-compile exec:java -Dbenchmark.args="--records 1000000"}.
+ */
+public class AvroSchemeBenchmark {
+
+  private static final String[] FLOWS = {"read", "filter", "aggregate", "rewrite"};
+
+  private final Schema schema;
+  private final String schemaName;
+  private final long records;
+  private final String codec;
+  private final int runs;
+  private final long seed;
+  private final File workDir;
+  private final File output;
+
+  public AvroSchemeBenchmark(Schema schema, String schemaName, long records, String codec, int runs, long seed,
+                             File workDir, File output) {
+    this.schema = schema;
+    this.schemaName = schemaName;
+    this.records = records;
+    this.codec = codec;
+    this.runs = runs;
+    this.seed = seed;
+    this.workDir = workDir;
+    this.output = output;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String schemaName = "test1.avsc";
+    long records = 100000;
+    String codec = "deflate";
+    int runs = 3;
+    long seed = 42;
+    File workDir = new File("target/benchmark");
+    File output = null;
+
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value for " + arg);
+      }
+      String value = args[++i];
+      if ("--schema".equals(arg)) {
+        schemaName = value;
+      } else if ("--records".equals(arg)) {
+        records = Long.parseLong(value);
+      } else if ("--codec".equals(arg)) {
+        codec = value;
+      } else if ("--runs".equals(arg)) {
+        runs = Integer.parseInt(value);
+      } else if ("--seed".equals(arg)) {
+        seed = Long.parseLong(value);
+      } else if ("--workdir".equals(arg)) {
+        workDir = new File(value);
+      } else if ("--out".equals(arg)) {
+        output = new File(value);
+      } else {
+        throw new IllegalArgumentException("Unknown argument " + arg);
+      }
+    }
+    if (output == null) {
+      output = new File(workDir, "results.json");
+    }
+
+    new AvroSchemeBenchmark(loadSchema(schemaName), schemaName, records, codec, runs, seed, workDir, output).run();
+  }
+
+  static Schema loadSchema(String name) throws IOException {
+    File file = new File(name);
+    if (file.isFile()) {
+      return new Schema.Parser().parse(file);
+    }
+    InputStream in = AvroScheme.class.getResourceAsStream(name);
+    if (in == null) {
+      throw new IllegalArgumentException("No schema file or test schema resource named " + name);
+    }
+    try {
+      return new Schema.Parser().parse(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  public void run() throws IOException {
+    File input = new File(workDir, "input");
+    long inputBytes = new SyntheticAvroData(seed).write(schema, records, CodecFactory.fromString(codec),
+                                                       new File(input, "part-00000.avro"));
+
+    output.getParentFile().mkdirs();
+    Writer writer = new FileWriter(output, true);
+    try {
+      for (int run = 0; run < runs; run++) {
+        for (String name : FLOWS) {
+          Flow flow = createFlow(name, input.getPath(), new File(workDir, name).getPath());
+          if (flow == null) {
+            continue;
+          }
+          String result = measure(flow).toJson(name, run, inputBytes);
+          System.out.println(result);
+          writer.write(result);
+          writer.write('\n');
+          writer.flush();
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  Flow createFlow(String name, String inputPath, String outputPath) {
+    Tap source = new Lfs(new AvroScheme(schema), inputPath);
+    Pipe pipe = new Pipe(name);
+
+    if ("read".equals(name)) {
+      pipe = new Each(pipe, new DiscardAll());
+      return new HadoopFlowConnector().connect(source, sequenceSink(outputPath), pipe);
+    } else if ("filter".equals(name)) {
+      pipe = new Each(pipe, new DiscardHalf());
+      return new HadoopFlowConnector().connect(source, avroSink(outputPath), pipe);
+    } else if ("aggregate".equals(name)) {
+      String groupField = findGroupField();
+      if (groupField == null) {
+        return null;
+      }
+      Fields group = new Fields(groupField);
+      pipe = new Each(pipe, group, new Identity());
+      pipe = new GroupBy(pipe, group);
+      pipe = new Every(pipe, new Count());
+      return new HadoopFlowConnector().connect(source, sequenceSink(outputPath), pipe);
+    } else {
+      return new HadoopFlowConnector().connect(source, avroSink(outputPath), pipe);
+    }
+  }
+
+  private Tap sequenceSink(String path) {
+    return new Lfs(new SequenceFile(Fields.ALL), path, SinkMode.REPLACE);
+  }
+
+  private Tap avroSink(String path) {
+    return new Lfs(new AvroScheme(schema), path, SinkMode.REPLACE);
+  }
+
+  /**
+   * The aggregate flow groups on the first field that is a primitive, or a nullable primitive, so that it can be
+   * grouped without extra Hadoop serializations.
+   *
+   * @return String The field name, or null if the schema has no such field.
+   */
+  private String findGroupField() {
+    for (Field field : schema.getFields()) {
+      Schema fieldSchema = field.schema();
+      if (fieldSchema.getType() == Schema.Type.UNION && fieldSchema.getTypes().size() == 2) {
+        fieldSchema = fieldSchema.getTypes().get(fieldSchema.getTypes().get(0).getType() == Schema.Type.NULL ? 1 : 0);
+      }
+      switch (fieldSchema.getType()) {
+        case BOOLEAN:
+        case INT:
+        case LONG:
+        case STRING:
+        case ENUM:
+          return field.name();
+        default:
+          break;
+      }
+    }
+    return null;
+  }
+
+  private Measurement measure(Flow flow) {
+    System.gc();
+    List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        pool.resetPeakUsage();
+        heapPools.add(pool);
+      }
+    }
+    long gcBefore = totalGcMillis();
+    long start = System.nanoTime();
+
+    flow.complete();
+
+    Measurement measurement = new Measurement();
+    measurement.nanos = System.nanoTime() - start;
+    measurement.gcMillis = totalGcMillis() - gcBefore;
+    for (MemoryPoolMXBean pool : heapPools) {
+      measurement.poolPeakBytes.put(pool.getName(), pool.getPeakUsage().getUsed());
+    }
+    return measurement;
+  }
+
+  private static long totalGcMillis() {
+    long total = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, gc.getCollectionTime());
+    }
+    return total;
+  }
+
+  private class Measurement {
+    long nanos;
+    long gcMillis;
+    // the pools peak at different times, so their sum is only an upper bound of the peak heap
+    final Map<String, Long> poolPeakBytes = new LinkedHashMap<String, Long>();
+
+    String toJson(String flow, int run, long inputBytes) {
+      double seconds = nanos / 1e9;
+      long peakHeapUpperBound = 0;
+      StringBuilder pools = new StringBuilder("{");
+      for (Map.Entry<String, Long> pool : poolPeakBytes.entrySet()) {
+        if (pools.length() > 1) {
+          pools.append(',');
+        }
+        pools.append(quote(pool.getKey())).append(':').append(pool.getValue());
+        peakHeapUpperBound += pool.getValue();
+      }
+      pools.append('}');
+      return String.format(Locale.ENGLISH,
+                           "{\"schema\":%s,\"flow\":%s,\"run\":%d,\"codec\":%s,\"records\":%d," +
+                               "\"inputBytes\":%d,\"seconds\":%.3f,\"recordsPerSecond\":%.1f,\"mbPerSecond\":%.3f," +
+                               "\"gcMillis\":%d,\"peakHeapPoolBytes\":%s,\"peakHeapUpperBoundBytes\":%d," +
+                               "\"javaVersion\":%s,\"timestamp\":%d}",
+                           quote(schemaName), quote(flow), run, quote(codec), records, inputBytes, seconds,
+                           records / seconds, inputBytes / (1024.0 * 1024.0) / seconds, gcMillis, pools,
+                           peakHeapUpperBound, quote(System.getProperty("java.version")),
+                           System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * Quotes a string as a JSON string literal.
+   */
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          quoted.append("\\\"");
+          break;
+        case '\\':
+          quoted.append("\\\\");
+          break;
+        case '\n':
+          quoted.append("\\n");
+          break;
+        case '\r':
+          quoted.append("\\r");
+          break;
+        case '\t':
+          quoted.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            quoted.append(String.format(Locale.ENGLISH, "\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  private static class DiscardAll extends BaseOperation implements Filter {
+    @Override
+    public boolean isRemove(FlowProcess flowProcess, FilterCall filterCall) {
+      return true;
+    }
+  }
+
+  private static class DiscardHalf extends BaseOperation implements Filter {
+    @Override
+    public boolean isRemove(FlowProcess flowProcess, FilterCall filterCall) {
+      Object first = filterCall.getArguments().getObject(0);
+      return first != null && (first.hashCode() & 1) == 1;
+    }
+  }
+}
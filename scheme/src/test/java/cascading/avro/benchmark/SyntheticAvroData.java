@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cascading.avro.benchmark;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.util.Utf8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates reproducible random Avro container files for an arbitrary record schema. The same schema, seed and
+ * record count always produce the same data, so benchmark runs can be compared across releases.
+ */
+public class SyntheticAvroData {
+
+  private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+  private static final int MAX_DEPTH = 4;
+  private static final int MAX_COLLECTION_SIZE = 5;
+
+  private final Random random;
+
+  public SyntheticAvroData(long seed) {
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Writes a container file with the given number of random records.
+   *
+   * @param schema  The record schema to generate data for.
+   * @param records The number of records to write.
+   * @param codec   The codec used to compress the file blocks.
+   * @param file    The file to write.
+   * @return long The size in bytes of the written file.
+   * @throws IOException
+   */
+  public long write(Schema schema, long records, CodecFactory codec, File file) throws IOException {
+    if (schema.getType() != Schema.Type.RECORD) {
+      throw new IllegalArgumentException("Synthetic data can only be generated for record schemas");
+    }
+    file.getParentFile().mkdirs();
+    DataFileWriter<IndexedRecord> writer = new DataFileWriter<IndexedRecord>(
+        new GenericDatumWriter<IndexedRecord>(schema));
+    writer.setCodec(codec);
+    writer.create(schema, file);
+    try {
+      for (long i = 0; i < records; i++) {
+        writer.append(nextRecord(schema, 0));
+      }
+    } finally {
+      writer.close();
+    }
+    return file.length();
+  }
+
+  IndexedRecord nextRecord(Schema schema, int depth) {
+    GenericData.Record record = new GenericData.Record(schema);
+    List<Field> fields = schema.getFields();
+    for (int i = 0; i < fields.size(); i++) {
+      record.put(i, nextValue(fields.get(i).schema(), depth + 1));
+    }
+    return record;
+  }
+
+  Object nextValue(Schema schema, int depth) {
+    switch (schema.getType()) {
+      case NULL:
+        return null;
+      case BOOLEAN:
+        return random.nextBoolean();
+      case INT:
+        return random.nextInt();
+      case LONG:
+        return random.nextLong();
+      case FLOAT:
+        return random.nextFloat();
+      case DOUBLE:
+        return random.nextDouble();
+      case STRING:
+        return nextString(8 + random.nextInt(17));
+      case BYTES:
+        return ByteBuffer.wrap(nextBytes(16 + random.nextInt(49)));
+      case FIXED:
+        return new GenericData.Fixed(schema, nextBytes(schema.getFixedSize()));
+      case ENUM:
+        List<String> symbols = schema.getEnumSymbols();
+        return new GenericData.EnumSymbol(schema, symbols.get(random.nextInt(symbols.size())));
+      case ARRAY:
+        int length = depth > MAX_DEPTH ? 0 : random.nextInt(MAX_COLLECTION_SIZE + 1);
+        GenericData.Array<Object> array = new GenericData.Array<Object>(length, schema);
+        for (int i = 0; i < length; i++) {
+          array.add(nextValue(schema.getElementType(), depth + 1));
+        }
+        return array;
+      case MAP:
+        int size = depth > MAX_DEPTH ? 0 : random.nextInt(MAX_COLLECTION_SIZE + 1);
+        Map<Utf8, Object> map = new HashMap<Utf8, Object>();
+        for (int i = 0; i < size; i++) {
+          map.put(nextString(6), nextValue(schema.getValueType(), depth + 1));
+        }
+        return map;
+      case UNION:
+        return nextUnionValue(schema, depth);
+      case RECORD:
+        return nextRecord(schema, depth);
+      default:
+        throw new IllegalArgumentException("Can't generate data for type " + schema.getType());
+    }
+  }
+
+  private Object nextUnionValue(Schema schema, int depth) {
+    List<Schema> types = schema.getTypes();
+    Integer nullIndex = schema.getIndexNamed(Schema.Type.NULL.getName());
+    // nulls are kept rare so that most values exercise the concrete branches
+    if (nullIndex != null && (depth > MAX_DEPTH || random.nextInt(10) == 0)) {
+      return null;
+    }
+    Schema branch;
+    do {
+      branch = types.get(random.nextInt(types.size()));
+    } while (branch.getType() == Schema.Type.NULL && types.size() > 1);
+    return nextValue(branch, depth);
+  }
+
+  private Utf8 nextString(int length) {
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+    }
+    return new Utf8(builder.toString());
+  }
+
+  private byte[] nextBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
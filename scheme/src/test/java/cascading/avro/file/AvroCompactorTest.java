@@ -0,0 +1,145 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cascading.avro.file.AvroTestFiles.writeFile;
+import static org.junit.Assert.*;
+
+public class AvroCompactorTest {
+
+  @Rule
+  public final TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testCompact() throws Exception {
+    File input = new File(tempDir.getRoot(), "in");
+    input.mkdirs();
+    for (int i = 0; i < 4; i++) {
+      writeFile(new File(input, "part-0000" + i + ".avro"), CodecFactory.deflateCodec(1), i * 100, 100);
+    }
+    // a different codec starts a new file
+    writeFile(new File(input, "part-00004.avro"), CodecFactory.snappyCodec(), 400, 100);
+    File output = new File(tempDir.getRoot(), "out");
+
+    List<Path> written = new AvroCompactor(new Configuration())
+        .compact(new Path(input.toURI()), new Path(output.toURI()));
+
+    assertEquals(2, written.size());
+    List<Long> values = new ArrayList<Long>();
+    for (Path path : written) {
+      DataFileReader<Long> reader = new DataFileReader<Long>(new File(path.toUri().getPath()),
+          new GenericDatumReader<Long>());
+      for (Long value : reader) {
+        values.add(value);
+      }
+      reader.close();
+    }
+    assertEquals(500, values.size());
+    for (int i = 0; i < values.size(); i++) {
+      assertEquals(i, values.get(i).longValue());
+    }
+  }
+
+  @Test
+  public void testTargetSizeAndPartitions() throws Exception {
+    File first = new File(tempDir.getRoot(), "first");
+    File second = new File(tempDir.getRoot(), "second");
+    first.mkdirs();
+    second.mkdirs();
+    for (int i = 0; i < 6; i++) {
+      writeFile(new File(first, "part-0000" + i + ".avro"), CodecFactory.nullCodec(), 0, 50);
+      writeFile(new File(second, "part-0000" + i + ".avro"), CodecFactory.nullCodec(), 0, 50);
+    }
+    long fileSize = new File(first, "part-00000.avro").length();
+
+    AvroCompactor compactor = new AvroCompactor(new Configuration());
+    compactor.setTargetSize(fileSize * 3);
+    compactor.setThreads(2);
+    Map<Path, Path> partitions = new LinkedHashMap<Path, Path>();
+    partitions.put(new Path(first.toURI()), new Path(new File(tempDir.getRoot(), "out/first").toURI()));
+    partitions.put(new Path(second.toURI()), new Path(new File(tempDir.getRoot(), "out/second").toURI()));
+    Map<Path, List<Path>> written = compactor.compact(partitions);
+
+    assertEquals(2, written.size());
+    for (List<Path> files : written.values()) {
+      assertEquals(2, files.size());
+      for (Path file : files) {
+        assertEquals(150, AvroRecordCounter.count(file, new Configuration()));
+        DataFileReader<Long> reader = new DataFileReader<Long>(new File(file.toUri().getPath()),
+            new GenericDatumReader<Long>());
+        assertEquals("null", reader.getMetaString(DataFileConstants.CODEC));
+        assertEquals(AvroTestFiles.TAG, reader.getMetaString("user.tag"));
+        reader.close();
+      }
+    }
+  }
+
+  @Test
+  public void testRejectsOutputInsideInput() throws Exception {
+    File input = new File(tempDir.getRoot(), "in");
+    input.mkdirs();
+    File file = new File(input, "part-00000.avro");
+    writeFile(file, CodecFactory.nullCodec(), 0, 100);
+    long length = file.length();
+
+    AvroCompactor compactor = new AvroCompactor(new Configuration());
+    for (File output : new File[]{input, new File(input, "out")}) {
+      try {
+        compactor.compact(new Path(input.toURI()), new Path(output.toURI()));
+        fail("Output " + output + " accepted");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+    assertEquals(length, file.length());
+    assertFalse(new File(input, "out").exists());
+  }
+
+  @Test
+  public void testDoesNotOverwriteOutput() throws Exception {
+    File input = new File(tempDir.getRoot(), "in");
+    input.mkdirs();
+    writeFile(new File(input, "part-00000.avro"), CodecFactory.nullCodec(), 0, 100);
+    File output = new File(tempDir.getRoot(), "out");
+    File existing = new File(output, "part-00000.avro");
+    output.mkdirs();
+    writeFile(existing, CodecFactory.nullCodec(), 0, 10);
+
+    try {
+      new AvroCompactor(new Configuration()).compact(new Path(input.toURI()), new Path(output.toURI()));
+      fail("Existing output overwritten");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(10, AvroRecordCounter.count(new Path(existing.toURI()), new Configuration()));
+  }
+}
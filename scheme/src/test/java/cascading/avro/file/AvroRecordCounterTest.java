@@ -0,0 +1,82 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.SeekableByteArrayInput;
+import org.apache.avro.file.SeekableInput;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static cascading.avro.file.AvroTestFiles.writeFile;
+import static org.junit.Assert.*;
+
+public class AvroRecordCounterTest {
+
+  @Rule
+  public final TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testCount() throws Exception {
+    File file = writeFile(new File(tempDir.getRoot(), "data.avro"), CodecFactory.deflateCodec(9), 0, 1234);
+    assertEquals(1234, AvroRecordCounter.count(new Path(file.toURI()), new Configuration()));
+  }
+
+  @Test
+  public void testCountFiles() throws Exception {
+    File dir = new File(tempDir.getRoot(), "dir");
+    new File(dir, "nested").mkdirs();
+    writeFile(new File(dir, "part-00000.avro"), CodecFactory.snappyCodec(), 0, 100);
+    writeFile(new File(dir, "nested/part-00001.avro"), CodecFactory.nullCodec(), 0, 200);
+    writeFile(new File(dir, "_ignored.avro"), CodecFactory.nullCodec(), 0, 300);
+    writeFile(new File(dir, "empty.avro"), CodecFactory.nullCodec(), 0, 0);
+
+    Map<Path, Long> counts = AvroRecordCounter.countFiles(new Configuration(), 2, new Path(dir.toURI()));
+    assertEquals(3, counts.size());
+    long total = 0;
+    for (Map.Entry<Path, Long> entry : counts.entrySet()) {
+      if (entry.getKey().getName().equals("part-00000.avro")) {
+        assertEquals(100L, entry.getValue().longValue());
+      }
+      total += entry.getValue();
+    }
+    assertEquals(300, total);
+  }
+
+  @Test
+  public void testClosesInputOfInvalidFile() throws Exception {
+    final boolean[] closed = new boolean[1];
+    SeekableInput input = new SeekableByteArrayInput("not an avro file".getBytes("UTF-8")) {
+      @Override
+      public void close() throws IOException {
+        closed[0] = true;
+        super.close();
+      }
+    };
+    try {
+      AvroRecordCounter.count(input);
+      fail("Expected the invalid header to be rejected");
+    } catch (IOException e) {
+      assertTrue(closed[0]);
+    }
+  }
+}
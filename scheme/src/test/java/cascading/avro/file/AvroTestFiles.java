@@ -0,0 +1,56 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+
+import java.io.File;
+
+/**
+ * Writes the data files the tests of the file tools read: consecutive longs, tagged with {@link #TAG}.
+ */
+final class AvroTestFiles {
+
+  static final Schema SCHEMA = Schema.create(Schema.Type.LONG);
+
+  /** The value of the user.tag metadata of every file. */
+  static final String TAG = "test";
+
+  private AvroTestFiles() {
+  }
+
+  /**
+   * Writes the longs first to first + records - 1 in many small blocks.
+   */
+  static File writeFile(File file, CodecFactory codec, long first, int records) throws Exception {
+    return writeFile(file, codec, first, records, 64);
+  }
+
+  static File writeFile(File file, CodecFactory codec, long first, int records, int syncInterval) throws Exception {
+    DataFileWriter<Long> writer = new DataFileWriter<Long>(new GenericDatumWriter<Long>(SCHEMA));
+    writer.setCodec(codec);
+    writer.setMeta("user.tag", TAG);
+    writer.setSyncInterval(syncInterval);
+    writer.create(SCHEMA, file);
+    for (long i = first; i < first + records; i++) {
+      writer.append(i);
+    }
+    writer.close();
+    return file;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static cascading.avro.file.AvroTestFiles.writeFile;
+import static org.junit.Assert.*;
+
+public class AvroTranscoderTest {
+
+  @Rule
+  public final TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testTranscodeAll() throws Exception {
+    File input = new File(tempDir.getRoot(), "in");
+    input.mkdirs();
+    for (int i = 0; i < 3; i++) {
+      writeFile(new File(input, "part-0000" + i + ".avro"), CodecFactory.deflateCodec(9), 0, 200);
+    }
+    File output = new File(tempDir.getRoot(), "out");
+
+    AvroTranscoder transcoder = new AvroTranscoder(new Configuration(), CodecFactory.snappyCodec());
+    transcoder.setThreads(2);
+    List<Path> written = transcoder.transcodeAll(new Path(input.toURI()), new Path(output.toURI()));
+
+    assertEquals(3, written.size());
+    for (Path path : written) {
+      DataFileReader<Long> reader = new DataFileReader<Long>(new File(path.toUri().getPath()),
+          new GenericDatumReader<Long>());
+      assertEquals(DataFileConstants.SNAPPY_CODEC, reader.getMetaString(DataFileConstants.CODEC));
+      assertEquals(AvroTestFiles.TAG, reader.getMetaString("user.tag"));
+      int count = 0;
+      for (Long value : reader) {
+        assertEquals(count++, value.longValue());
+      }
+      reader.close();
+      assertEquals(200, count);
+    }
+  }
+
+  @Test
+  public void testTranscodeInPlace() throws Exception {
+    File input = new File(tempDir.getRoot(), "in");
+    input.mkdirs();
+    for (int i = 0; i < 3; i++) {
+      writeFile(new File(input, "part-0000" + i + ".avro"), CodecFactory.deflateCodec(9), 0, 200);
+    }
+
+    AvroTranscoder transcoder = new AvroTranscoder(new Configuration(), CodecFactory.snappyCodec());
+    List<Path> written = transcoder.transcodeAll(new Path(input.toURI()), new Path(input.toURI()));
+
+    assertEquals(3, written.size());
+    for (Path path : written) {
+      DataFileReader<Long> reader = new DataFileReader<Long>(new File(path.toUri().getPath()),
+          new GenericDatumReader<Long>());
+      assertEquals(DataFileConstants.SNAPPY_CODEC, reader.getMetaString(DataFileConstants.CODEC));
+      int count = 0;
+      for (Long value : reader) {
+        assertEquals(count++, value.longValue());
+      }
+      reader.close();
+      assertEquals(200, count);
+    }
+    for (String name : input.list()) {
+      assertFalse(name, name.contains("transcoding"));
+    }
+  }
+}
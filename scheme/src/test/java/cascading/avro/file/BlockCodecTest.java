@@ -0,0 +1,72 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class BlockCodecTest {
+
+  @Test
+  public void testDeflate() throws Exception {
+    byte[] data = data(100000);
+    ByteBuffer decompressed = BlockCodec.forName("deflate").decompress(ByteBuffer.wrap(deflate(data)));
+    byte[] result = new byte[decompressed.remaining()];
+    decompressed.get(result);
+    assertArrayEquals(data, result);
+  }
+
+  @Test
+  public void testTruncatedDeflateBlock() throws Exception {
+    byte[] compressed = deflate(data(100000));
+    byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+    BufferPool pool = new BufferPool(1 << 20);
+    try {
+      BlockCodec.forName("deflate").decompress(ByteBuffer.wrap(truncated), pool);
+      fail("Expected the truncated block to be rejected");
+    } catch (IOException e) {
+      assertEquals("Truncated deflate block", e.getMessage());
+    }
+    assertTrue(pool.getRetained() > 0);
+  }
+
+  private static byte[] data(int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (i * 31 % 251);
+    }
+    return data;
+  }
+
+  private static byte[] deflate(byte[] data) {
+    // raw deflate, as in Avro files
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    deflater.setInput(data);
+    deflater.finish();
+    byte[] buffer = new byte[data.length + 1024];
+    int length = 0;
+    while (!deflater.finished()) {
+      length += deflater.deflate(buffer, length, buffer.length - length);
+    }
+    deflater.end();
+    return Arrays.copyOf(buffer, length);
+  }
+}
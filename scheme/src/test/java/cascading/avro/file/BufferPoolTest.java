@@ -0,0 +1,61 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+  @Test
+  public void testReusesReleasedArrays() {
+    BufferPool pool = new BufferPool(1 << 20);
+    byte[] first = pool.acquire(3000);
+    assertEquals(4096, first.length);
+    pool.release(first);
+
+    assertSame(first, pool.acquire(2049));
+    assertEquals(1, pool.getHits());
+    assertEquals(1, pool.getMisses());
+    assertEquals(0, pool.getRetained());
+  }
+
+  @Test
+  public void testSizeClasses() {
+    BufferPool pool = new BufferPool(1 << 20);
+    pool.release(pool.acquire(4096));
+
+    assertEquals(8192, pool.acquire(4097).length);
+    assertEquals(1024, pool.acquire(1).length);
+    assertEquals(3, pool.getMisses());
+    // not a size class of the pool
+    pool.release(new byte[1000]);
+    assertEquals(4096, pool.getRetained());
+  }
+
+  @Test
+  public void testLimit() {
+    BufferPool pool = new BufferPool(8192);
+    byte[] first = pool.acquire(8192);
+    byte[] second = pool.acquire(8192);
+    pool.release(first);
+    pool.release(second);
+
+    assertEquals(8192, pool.getRetained());
+    assertSame(first, pool.acquire(8192));
+    assertNotSame(second, pool.acquire(8192));
+  }
+}
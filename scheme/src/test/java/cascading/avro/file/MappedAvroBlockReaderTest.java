@@ -0,0 +1,50 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.file;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.SeekableFileInput;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static cascading.avro.file.AvroTestFiles.writeFile;
+import static org.junit.Assert.*;
+
+public class MappedAvroBlockReaderTest {
+
+  @Rule
+  public final TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testSyncAcrossWindows() throws Exception {
+    File file = writeFile(new File(tempDir.getRoot(), "data.avro"), CodecFactory.nullCodec(), 0, 5000, 1000);
+
+    AvroBlockReader expected = new AvroBlockReader(new SeekableFileInput(file));
+    // small windows, so markers are found in later windows and across window boundaries
+    MappedAvroBlockReader mapped = new MappedAvroBlockReader(file, 1000);
+    for (long position = 0; position < file.length(); position += 37) {
+      expected.sync(position);
+      mapped.sync(position);
+      assertEquals("sync(" + position + ")", expected.tell(), mapped.tell());
+    }
+    mapped.sync(file.length() - 1);
+    assertEquals(file.length(), mapped.tell());
+    expected.close();
+    mapped.close();
+  }
+}
@@ -0,0 +1,115 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AsyncRecordWriterTest {
+
+  @Test
+  public void testWritesAllRecordsInOrderOnClose() throws Exception {
+    RecordingWriter delegate = new RecordingWriter(-1);
+    AsyncRecordWriter<Integer, String> writer = new AsyncRecordWriter<Integer, String>(delegate, 2);
+    for (int i = 0; i < 100; i++) {
+      writer.write(i, "value");
+    }
+    writer.close(null);
+
+    assertEquals(100, delegate.keys.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(Integer.valueOf(i), delegate.keys.get(i));
+    }
+    assertTrue(delegate.closed);
+    assertNotSame(Thread.currentThread(), delegate.writerThread);
+  }
+
+  @Test
+  public void testFailureIsThrownToTheProducer() throws Exception {
+    AsyncRecordWriter<Integer, String> writer = new AsyncRecordWriter<Integer, String>(new RecordingWriter(3), 1);
+    try {
+      for (int i = 0; i < 100; i++) {
+        writer.write(i, "value");
+      }
+      writer.close(null);
+      fail("Expected the writer's failure");
+    } catch (IOException e) {
+      assertEquals("failed at 3", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testClosesDelegateAfterFailure() throws Exception {
+    RecordingWriter delegate = new RecordingWriter(3);
+    AsyncRecordWriter<Integer, String> writer = new AsyncRecordWriter<Integer, String>(delegate, 1);
+    try {
+      for (int i = 0; i < 100; i++) {
+        writer.write(i, "value");
+      }
+      fail("Expected the writer's failure");
+    } catch (IOException e) {
+      // the task fails, and Hadoop closes the writer
+    }
+    try {
+      writer.close(null);
+      fail("Expected the writer's failure");
+    } catch (IOException e) {
+      assertEquals("failed at 3", e.getCause().getMessage());
+    }
+    assertTrue(delegate.closed);
+
+    // a failure that is only noticed on close
+    delegate = new RecordingWriter(0);
+    writer = new AsyncRecordWriter<Integer, String>(delegate, 10);
+    writer.write(0, "value");
+    try {
+      writer.close(null);
+      fail("Expected the writer's failure");
+    } catch (IOException e) {
+      assertEquals("failed at 0", e.getCause().getMessage());
+    }
+    assertTrue(delegate.closed);
+  }
+
+  private static class RecordingWriter implements RecordWriter<Integer, String> {
+    private final int failAt;
+    final List<Integer> keys = new ArrayList<Integer>();
+    volatile Thread writerThread;
+    volatile boolean closed;
+
+    RecordingWriter(int failAt) {
+      this.failAt = failAt;
+    }
+
+    public void write(Integer key, String value) throws IOException {
+      writerThread = Thread.currentThread();
+      if (key == failAt) {
+        throw new IOException("failed at " + key);
+      }
+      keys.add(key);
+    }
+
+    public void close(Reporter reporter) {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import cascading.avro.file.BufferPool;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AvroBlockRecordReaderTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"block\", "
+      + "\"fields\":[{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"name\", \"type\":\"string\"}]}");
+
+  @Rule
+  public final TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testReadsEachRecordOnce() throws Exception {
+    File file = writeFile(CodecFactory.deflateCodec(9), 1000);
+    assertEquals(range(1000), readIds(file, new JobConf(), 3));
+  }
+
+  @Test
+  public void testReadAhead() throws Exception {
+    File file = writeFile(CodecFactory.deflateCodec(9), 1000);
+    JobConf conf = new JobConf();
+    conf.setInt(AvroBlockInputFormat.READ_AHEAD_KEY, 2);
+    assertEquals(range(1000), readIds(file, conf, 3));
+
+    conf.setBoolean(AvroBlockInputFormat.DECODE_AHEAD_KEY, true);
+    assertEquals(range(1000), readIds(file, conf, 1));
+  }
+
+  @Test
+  public void testParallelDecompression() throws Exception {
+    File file = writeFile(CodecFactory.deflateCodec(9), 2000);
+    JobConf conf = new JobConf();
+    conf.setInt(AvroBlockInputFormat.DECOMPRESSION_THREADS_KEY, 4);
+    assertEquals(range(2000), readIds(file, conf, 2));
+
+    conf.setBoolean(AvroBlockInputFormat.DECODE_AHEAD_KEY, true);
+    assertEquals(range(2000), readIds(file, conf, 1));
+  }
+
+  @Test
+  public void testSnappyAndNullCodecs() throws Exception {
+    JobConf conf = new JobConf();
+    conf.setInt(AvroBlockInputFormat.READ_AHEAD_KEY, 1);
+    assertEquals(range(500), readIds(writeFile(CodecFactory.snappyCodec(), 500), conf, 2));
+    assertEquals(range(500), readIds(writeFile(CodecFactory.nullCodec(), 500), conf, 2));
+  }
+
+  @Test
+  public void testMemoryMapped() throws Exception {
+    JobConf conf = new JobConf();
+    conf.setBoolean(AvroBlockInputFormat.MEMORY_MAP_KEY, true);
+    assertEquals(range(1000), readIds(writeFile(CodecFactory.nullCodec(), 1000), conf, 3));
+    assertEquals(range(1000), readIds(writeFile(CodecFactory.deflateCodec(1), 1000), conf, 3));
+
+    conf.setInt(AvroBlockInputFormat.DECOMPRESSION_THREADS_KEY, 2);
+    assertEquals(range(1000), readIds(writeFile(CodecFactory.snappyCodec(), 1000), conf, 2));
+  }
+
+  @Test
+  public void testMemoryMappedLargeBlocks() throws Exception {
+    JobConf conf = new JobConf();
+    conf.setBoolean(AvroBlockInputFormat.MEMORY_MAP_KEY, true);
+    // split starts far from the next sync marker
+    File file = writeFile(CodecFactory.nullCodec(), 20000, 64 * 1024);
+    assertEquals(range(20000), readIds(file, conf, 7));
+  }
+
+  @Test
+  public void testBufferPool() throws Exception {
+    JobConf conf = new JobConf();
+    conf.setLong(AvroBlockInputFormat.BUFFER_POOL_SIZE_KEY, 1 << 20);
+    conf.setInt(AvroBlockInputFormat.READ_AHEAD_KEY, 2);
+    long hits = BufferPool.shared(0).getHits();
+    assertEquals(range(1000), readIds(writeFile(CodecFactory.deflateCodec(1), 1000), conf, 1));
+    assertEquals(range(1000), readIds(writeFile(CodecFactory.snappyCodec(), 1000), conf, 3));
+    assertTrue(BufferPool.shared(0).getHits() > hits);
+  }
+
+  @Test
+  public void testBlockSample() throws Exception {
+    File file = writeFile(CodecFactory.deflateCodec(1), 2000);
+    JobConf conf = new JobConf();
+    conf.set(AvroBlockInputFormat.SAMPLE_FRACTION_KEY, "0.5");
+    conf.setLong(AvroBlockInputFormat.SAMPLE_SEED_KEY, 42);
+    List<Long> sample = readIds(file, conf, 1);
+
+    assertTrue(sample.size() > 400 && sample.size() < 1600);
+    // the same blocks, however the file is split and read
+    assertEquals(sample, readIds(file, conf, 3));
+    conf.setInt(AvroBlockInputFormat.READ_AHEAD_KEY, 2);
+    assertEquals(sample, readIds(file, conf, 2));
+
+    conf.setLong(AvroBlockInputFormat.SAMPLE_SEED_KEY, 43);
+    assertFalse(sample.equals(readIds(file, conf, 1)));
+  }
+
+  @Test
+  public void testMaxRecords() throws Exception {
+    File file = writeFile(CodecFactory.nullCodec(), 1000);
+    JobConf conf = new JobConf();
+    conf.setLong(AvroBlockInputFormat.SAMPLE_MAX_RECORDS_KEY, 10);
+    assertEquals(range(10), readIds(file, conf, 1));
+    conf.setBoolean(AvroBlockInputFormat.MEMORY_MAP_KEY, true);
+    assertEquals(30, readIds(file, conf, 3).size());
+  }
+
+  @Test
+  public void testRawRecords() throws Exception {
+    File file = writeFile(CodecFactory.deflateCodec(1), 300);
+    JobConf conf = new JobConf();
+    conf.setBoolean(AvroBlockInputFormat.RAW_RECORDS_KEY, true);
+    FileSplit split = new FileSplit(new Path(file.toURI()), 0, file.length(), (String[]) null);
+    AvroBlockRecordReader<GenericRecord> reader = new AvroBlockRecordReader<GenericRecord>(conf, split);
+    AvroWrapper<GenericRecord> wrapper = reader.createKey();
+    GenericDatumReader<GenericRecord> datumReader = new GenericDatumReader<GenericRecord>(SCHEMA);
+    long count = 0;
+    while (reader.next(wrapper, NullWritable.get())) {
+      byte[] encoded = ((RawAvroWrapper<GenericRecord>) wrapper).getEncoded();
+      GenericRecord decoded = datumReader.read(null, DecoderFactory.get().binaryDecoder(encoded, null));
+      assertEquals(wrapper.datum(), decoded);
+      assertEquals(count++, decoded.get("id"));
+    }
+    reader.close();
+    assertEquals(300, count);
+  }
+
+  @Test
+  public void testRawRecordsAcrossBufferBoundaries() throws Exception {
+    // multi-byte varints and strings longer than the decoder's buffer, in blocks holding many records
+    List<GenericRecord> records = new ArrayList<GenericRecord>();
+    for (int i = 0; i < 40; i++) {
+      StringBuilder name = new StringBuilder();
+      for (int j = 0; j < i * 997; j++) {
+        name.append(j % 3 == 0 ? '\u00e9' : (char) ('a' + j % 26));
+      }
+      GenericRecord record = new GenericData.Record(SCHEMA);
+      record.put("id", (i % 2 == 0 ? 1 : -1) * (1L << i));
+      record.put("name", name.toString());
+      records.add(record);
+    }
+    File file = new File(tempDir.getRoot(), "boundaries.avro");
+    DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(
+        new GenericDatumWriter<GenericRecord>(SCHEMA));
+    writer.setCodec(CodecFactory.deflateCodec(1));
+    writer.setSyncInterval(256 * 1024);
+    writer.create(SCHEMA, file);
+    for (GenericRecord record : records) {
+      writer.append(record);
+    }
+    writer.close();
+
+    JobConf conf = new JobConf();
+    conf.setBoolean(AvroBlockInputFormat.RAW_RECORDS_KEY, true);
+    FileSplit split = new FileSplit(new Path(file.toURI()), 0, file.length(), (String[]) null);
+    AvroBlockRecordReader<GenericRecord> reader = new AvroBlockRecordReader<GenericRecord>(conf, split);
+    AvroWrapper<GenericRecord> wrapper = reader.createKey();
+    GenericDatumReader<GenericRecord> datumReader = new GenericDatumReader<GenericRecord>(SCHEMA);
+    int count = 0;
+    while (reader.next(wrapper, NullWritable.get())) {
+      byte[] encoded = ((RawAvroWrapper<GenericRecord>) wrapper).getEncoded();
+      BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(encoded, null);
+      GenericRecord decoded = datumReader.read(null, decoder);
+      // the encoded form holds exactly one record
+      assertTrue(decoder.isEnd());
+      assertEquals(records.get(count++), decoded);
+    }
+    reader.close();
+    assertEquals(records.size(), count);
+  }
+
+  private File writeFile(CodecFactory codec, int records) throws Exception {
+    // many small blocks
+    return writeFile(codec, records, 64);
+  }
+
+  private File writeFile(CodecFactory codec, int records, int syncInterval) throws Exception {
+    File file = new File(tempDir.getRoot(), "data-" + tempDir.getRoot().list().length + ".avro");
+    DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(
+        new GenericDatumWriter<GenericRecord>(SCHEMA));
+    writer.setCodec(codec);
+    writer.setSyncInterval(syncInterval);
+    writer.create(SCHEMA, file);
+    for (long i = 0; i < records; i++) {
+      GenericRecord record = new GenericData.Record(SCHEMA);
+      record.put("id", i);
+      record.put("name", "name-" + i);
+      writer.append(record);
+    }
+    writer.close();
+    return file;
+  }
+
+  private List<Long> readIds(File file, JobConf conf, int splits) throws Exception {
+    List<Long> ids = new ArrayList<Long>();
+    long length = file.length();
+    long splitSize = length / splits + 1;
+    for (long start = 0; start < length; start += splitSize) {
+      FileSplit split = new FileSplit(new Path(file.toURI()), start, Math.min(splitSize, length - start),
+          (String[]) null);
+      AvroBlockRecordReader<GenericRecord> reader = new AvroBlockRecordReader<GenericRecord>(conf, split);
+      AvroWrapper<GenericRecord> wrapper = reader.createKey();
+      while (reader.next(wrapper, NullWritable.get())) {
+        ids.add((Long) wrapper.datum().get("id"));
+      }
+      reader.close();
+    }
+    return ids;
+  }
+
+  private static List<Long> range(int size) {
+    List<Long> ids = new ArrayList<Long>();
+    for (long i = 0; i < size; i++) {
+      ids.add(i);
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package cascading.avro.mapred;
+
+import cascading.avro.file.AvroBlockReader;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.SeekableFileInput;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class DeferredAvroOutputFormatTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse("{\"type\":\"record\", \"name\":\"deferred\", "
+      + "\"fields\":[{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"name\", \"type\":\"string\"}]}");
+
+  @Rule
+  public final TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testAppliesSyncIntervalAndMetadata() throws Exception {
+    JobConf job = newJob();
+    job.setInt(DeferredAvroOutputFormat.SYNC_INTERVAL_KEY, 64);
+    job.set(DeferredAvroOutputFormat.TEXT_META_PREFIX + "owner", "cascading");
+    job.set(DeferredAvroOutputFormat.BINARY_META_PREFIX + "raw", "a%00b");
+    File file = write(job, 1000);
+
+    DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file,
+        new GenericDatumReader<GenericRecord>());
+    assertEquals("cascading", reader.getMetaString("owner"));
+    assertArrayEquals(new byte[]{'a', 0, 'b'}, reader.getMeta("raw"));
+    reader.close();
+
+    AvroBlockReader blocks = new AvroBlockReader(new SeekableFileInput(file));
+    int count = 0;
+    while (blocks.hasNextBlock()) {
+      blocks.nextBlock();
+      count++;
+    }
+    blocks.close();
+    // the default interval would fit all records into one block
+    assertTrue(count > 10);
+  }
+
+  @Test
+  public void testWritesEncodedForm() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(bytes, null);
+    new GenericDatumWriter<GenericRecord>(SCHEMA).write(record(7), encoder);
+    encoder.flush();
+
+    JobConf job = newJob();
+    RecordWriter<AvroWrapper<GenericRecord>, NullWritable> writer =
+        new DeferredAvroOutputFormat<GenericRecord>().getRecordWriter(null, job, "part-00000", Reporter.NULL);
+    // the bytes differ from the datum, so only the encoded form can produce record 7
+    writer.write(new RawAvroWrapper<GenericRecord>(record(1), bytes.toByteArray()), NullWritable.get());
+    writer.close(Reporter.NULL);
+
+    File file = new File(FileOutputFormat.getTaskOutputPath(job, "part-00000.avro").toUri().getPath());
+    DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file,
+        new GenericDatumReader<GenericRecord>());
+    assertEquals(record(7), reader.next());
+    assertFalse(reader.hasNext());
+    reader.close();
+  }
+
+  private JobConf newJob() {
+    JobConf job = new JobConf();
+    job.set("mapred.task.id", "attempt_200707121733_0001_m_000000_0");
+    FileOutputFormat.setOutputPath(job, new Path(new File(tempDir.getRoot(), "out").toURI()));
+    return job;
+  }
+
+  private File write(JobConf job, int records) throws Exception {
+    RecordWriter<AvroWrapper<GenericRecord>, NullWritable> writer =
+        new DeferredAvroOutputFormat<GenericRecord>().getRecordWriter(null, job, "part-00000", Reporter.NULL);
+    for (long i = 0; i < records; i++) {
+      writer.write(new AvroWrapper<GenericRecord>(record(i)), NullWritable.get());
+    }
+    writer.close(Reporter.NULL);
+    return new File(FileOutputFormat.getTaskOutputPath(job, "part-00000.avro").toUri().getPath());
+  }
+
+  private static GenericRecord record(long id) {
+    GenericRecord record = new GenericData.Record(SCHEMA);
+    record.put("id", id);
+    record.put("name", "name-" + id);
+    return record;
+  }
+}